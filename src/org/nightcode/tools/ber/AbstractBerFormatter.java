@@ -68,8 +68,15 @@ public abstract class AbstractBerFormatter extends BerFormatter {
       throws IOException {
     int size = offset + length;
     buffer.checkLimit(size);
-    for (int i = offset; i < size; i++) {
-      writeHex(stream, buffer, i);
+    int i = offset;
+    for (; i + 8 <= size; i += 8) {
+      final long value = buffer.getLong(i);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        writeHex(stream, (byte) (value >>> shift));
+      }
+    }
+    for (; i < size; i++) {
+      writeHex(stream, buffer.getByte(i));
     }
   }
 
@@ -77,18 +84,32 @@ public abstract class AbstractBerFormatter extends BerFormatter {
       throws IOException {
     int size = offset + length;
     buffer.checkLimit(size);
-    writeHex(stream, buffer, offset);
-    for (int i = offset + 1; i < size; i++) {
-      stream.write(SPACE);
-      if ((i - offset) % 8 == 0) {
+    int i = offset;
+    for (; i + 8 <= size; i += 8) {
+      if (i > offset) {
+        stream.write(SPACE);
+        stream.write(SPACE);
+      }
+      final long value = buffer.getLong(i);
+      writeHex(stream, (byte) (value >>> 56));
+      for (int shift = 48; shift >= 0; shift -= 8) {
+        stream.write(SPACE);
+        writeHex(stream, (byte) (value >>> shift));
+      }
+    }
+    for (; i < size; i++) {
+      if (i > offset) {
         stream.write(SPACE);
+        if ((i - offset) % 8 == 0) {
+          stream.write(SPACE);
+        }
       }
-      writeHex(stream, buffer, i);
+      writeHex(stream, buffer.getByte(i));
     }
   }
 
-  private void writeHex(OutputStream out, BerBuffer buffer, int position) throws IOException {
-    out.write((byte) BerUtil.UPPER_HEX_DIGITS[(buffer.getByte(position) & 0xF0) >> 4]);
-    out.write((byte) BerUtil.UPPER_HEX_DIGITS[buffer.getByte(position) & 0x0F]);
+  private static void writeHex(OutputStream out, byte value) throws IOException {
+    out.write((byte) BerUtil.UPPER_HEX_DIGITS[(value & 0xF0) >> 4]);
+    out.write((byte) BerUtil.UPPER_HEX_DIGITS[value & 0x0F]);
   }
 }
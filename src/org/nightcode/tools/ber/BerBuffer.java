@@ -21,33 +21,177 @@ import java.nio.ByteBuffer;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.meta.When;
 
-interface BerBuffer {
+/**
+ * Random access to the BER data. Implementations use absolute indexes only and keep
+ * no mutable state, so read methods may be called concurrently once the content
+ * is fully written. Multi-byte values are big-endian and need not be aligned.
+ *
+ * <p>The interface is the SPI for memory types other than byte arrays and {@link ByteBuffer},
+ * e.g. ring buffers or shared memory regions: a frame parsed with
+ * {@link BerFrame#parseFrom(BerBuffer, int, int)} reads the implementation in place.
+ * Factories of user-supplied implementations are registered with {@link BerBufferRegistry}.
+ * Index arguments are in the range {@code [0, capacity())}, methods report invalid indexes
+ * with {@link IndexOutOfBoundsException}.
+ */
+public interface BerBuffer {
 
+  /**
+   * Returns the number of bytes addressable by the buffer.
+   *
+   * @return the capacity
+   */
   int capacity();
 
+  /**
+   * Checks that the index is in the range {@code [0, capacity())}.
+   *
+   * @param index the index to check
+   * @return the supplied index
+   * @exception IndexOutOfBoundsException if the index is out of range
+   */
   @CheckReturnValue(when = When.NEVER)
   int checkIndex(final int index);
 
+  /**
+   * Checks that the limit is in the range {@code [0, capacity()]}.
+   *
+   * @param limit the limit to check
+   * @return the supplied limit
+   * @exception IndexOutOfBoundsException if the limit is out of range
+   */
   @CheckReturnValue(when = When.NEVER)
   int checkLimit(final int limit);
 
+  /**
+   * Returns a {@link ByteBuffer} with the content of the buffer at the same indexes:
+   * a shared view where the memory allows it, a copy otherwise.
+   *
+   * @return the content as a ByteBuffer
+   */
   ByteBuffer duplicateByteBuffer();
 
+  /**
+   * Returns the byte at the index.
+   *
+   * @param index the index of the byte
+   * @return the byte value
+   */
   byte getByte(final int index);
 
+  /**
+   * Copies bytes starting at the index into the destination array.
+   *
+   * @param index the index of the first byte
+   * @param dst the destination array
+   * @return the number of copied bytes, fewer than requested at the end of the buffer
+   */
   int getBytes(final int index, final byte[] dst);
 
+  /**
+   * Copies bytes starting at the index into the range of the destination array.
+   *
+   * @param index the index of the first byte
+   * @param dst the destination array
+   * @param offset in the destination array
+   * @param length the number of bytes to copy
+   * @return the number of copied bytes, fewer than requested at the end of the buffer
+   */
   int getBytes(final int index, final byte[] dst, final int offset, final int length);
 
+  /**
+   * Copies bytes starting at the index into the destination buffer and advances its position.
+   *
+   * @param index the index of the first byte
+   * @param dstBuffer the destination buffer
+   * @param length the maximum number of bytes to copy
+   * @return the number of copied bytes, fewer than requested at the end of either buffer
+   */
   int getBytes(final int index, final ByteBuffer dstBuffer, final int length);
 
+  /**
+   * Returns the big-endian short at the index.
+   *
+   * @param index the index of the first byte
+   * @return the short value
+   */
+  short getShort(final int index);
+
+  /**
+   * Returns the big-endian int at the index.
+   *
+   * @param index the index of the first byte
+   * @return the int value
+   */
+  int getInt(final int index);
+
+  /**
+   * Returns the big-endian long at the index.
+   *
+   * @param index the index of the first byte
+   * @return the long value
+   */
+  long getLong(final int index);
+
+  /**
+   * Writes the byte at the index.
+   *
+   * @param index the index of the byte
+   * @param value the byte value
+   */
   void putByte(final int index, final byte value);
 
+  /**
+   * Copies the source array to the buffer starting at the index.
+   *
+   * @param index the index of the first byte
+   * @param src the source array
+   * @return the number of copied bytes, fewer than requested at the end of the buffer
+   */
   int putBytes(final int index, final byte[] src);
 
+  /**
+   * Copies the range of the source array to the buffer starting at the index.
+   *
+   * @param index the index of the first byte
+   * @param src the source array
+   * @param offset in the source array
+   * @param length the number of bytes to copy
+   * @return the number of copied bytes, fewer than requested at the end of the buffer
+   */
   int putBytes(final int index, final byte[] src, final int offset, final int length);
 
+  /**
+   * Copies bytes of the source buffer to the buffer starting at the index and advances
+   * the position of the source buffer.
+   *
+   * @param index the index of the first byte
+   * @param srcBuffer the source buffer
+   * @param length the maximum number of bytes to copy
+   * @return the number of copied bytes, fewer than requested at the end of either buffer
+   */
   int putBytes(final int index, final ByteBuffer srcBuffer, final int length);
 
+  /**
+   * Writes the big-endian short at the index.
+   *
+   * @param index the index of the first byte
+   * @param value the short value
+   */
+  void putShort(final int index, final short value);
+
+  /**
+   * Writes the big-endian int at the index.
+   *
+   * @param index the index of the first byte
+   * @param value the int value
+   */
   void putInt(final int index, final int value);
+
+  /**
+   * Writes the big-endian long at the index.
+   *
+   * @param index the index of the first byte
+   * @param value the long value
+   */
+  void putLong(final int index, final long value);
 }
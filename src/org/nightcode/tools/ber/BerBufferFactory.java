@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+/**
+ * Creates a {@link BerBuffer} which reads and writes the supplied memory in place.
+ *
+ * @param <T> the type of memory
+ */
+@FunctionalInterface
+public interface BerBufferFactory<T> {
+
+  /**
+   * Returns a BerBuffer over the supplied memory, index 0 of the buffer is the first byte
+   * of the memory. The memory must not be copied.
+   *
+   * @param source the memory
+   * @return new BerBuffer instance
+   */
+  BerBuffer create(T source);
+}
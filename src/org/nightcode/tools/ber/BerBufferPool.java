@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Bounded pool of heap and direct ByteBuffers for encoding and decoding scratch space.
+ *
+ * <p>Capacities are rounded up to size classes, powers of two from 256 bytes to 1 MiB;
+ * larger buffers are allocated on every request and not pooled. Released buffers are shared
+ * through lock-free stripes which hold at most {@code maxBuffersPerClass} buffers of each class
+ * and kind.
+ *
+ * <p>In addition every thread which releases buffers keeps up to {@code min(4, maxBuffersPerClass)}
+ * buffers of each class up to 64 KiB and kind for itself, at most about 1 MiB per thread. These
+ * buffers are not counted against {@code maxBuffersPerClass} and stay with the thread until
+ * it acquires them again or terminates; {@code maxBuffersPerClass == 0} disables the thread caches.
+ *
+ * <p>With {@code -Dorg.nightcode.tools.ber.poolLeakDetection=true} the pool records where
+ * every buffer was acquired and logs a warning when a buffer is garbage collected without
+ * being released; releasing a buffer twice or releasing a foreign buffer then throws
+ * IllegalStateException.
+ */
+public final class BerBufferPool {
+
+  private static final Logger LOGGER = Logger.getLogger(BerBufferPool.class.getName());
+
+  private static final int MIN_SHIFT = 8;
+  private static final int MAX_SHIFT = 20;
+  private static final int SIZE_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+  private static final int MAX_THREAD_CACHED_SHIFT = 16;
+  private static final int THREAD_CACHE_SIZE = 4;
+  private static final int DEFAULT_MAX_BUFFERS_PER_CLASS = 16;
+  private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+  private static final boolean LEAK_DETECTION = BerBufferUtil.getBoolean("org.nightcode.tools.ber.poolLeakDetection"
+      , false);
+
+  /**
+   * Creates new BerBufferPool instance which shares at most 16 buffers of each size class and kind.
+   *
+   * @return new BerBufferPool instance
+   */
+  public static BerBufferPool newInstance() {
+    return newInstance(DEFAULT_MAX_BUFFERS_PER_CLASS);
+  }
+
+  /**
+   * Creates new BerBufferPool instance.
+   *
+   * @param maxBuffersPerClass the maximum number of shared buffers of each size class and kind,
+   *     0 disables pooling
+   * @return new BerBufferPool instance
+   */
+  public static BerBufferPool newInstance(final int maxBuffersPerClass) {
+    return new BerBufferPool(maxBuffersPerClass, LEAK_DETECTION);
+  }
+
+  private static int stripes(int processors) {
+    int stripes = 1;
+    while (stripes < processors && stripes < 16) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+  /**
+   * Buffers kept by one thread, indexed by kind and size class.
+   */
+  private static final class ThreadCache {
+    private final ByteBuffer[][][] buffers;
+    private final int[][] counts = new int[2][SIZE_CLASSES];
+
+    private ThreadCache(int size) {
+      buffers = new ByteBuffer[2][SIZE_CLASSES][size];
+    }
+  }
+
+  /**
+   * Weak reference to an acquired buffer with the stack trace of its acquisition. Records are equal
+   * if they refer to the same buffer, so a released buffer finds its record by identity.
+   */
+  private static final class LeakRecord extends WeakReference<ByteBuffer> {
+    private final @Nullable Throwable trace;
+    private final int hash;
+
+    private LeakRecord(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+      super(buffer, queue);
+      this.trace = new Throwable("acquired here");
+      this.hash = System.identityHashCode(buffer);
+    }
+
+    private LeakRecord(ByteBuffer buffer) {
+      super(buffer);
+      this.trace = null;
+      this.hash = System.identityHashCode(buffer);
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof LeakRecord)) {
+        return false;
+      }
+      ByteBuffer buffer = get();
+      return buffer != null && buffer == ((LeakRecord) obj).get();
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+  }
+
+  private final AtomicReferenceArray<ByteBuffer>[][] stripes;
+  private final int slotsPerStripe;
+  private final int threadCacheSize;
+  private final ThreadLocal<ThreadCache> threadCache;
+  private final boolean leakDetection;
+  private final @Nullable Map<LeakRecord, LeakRecord> acquired;
+  private final @Nullable ReferenceQueue<ByteBuffer> collected;
+  private final AtomicInteger leaks = new AtomicInteger();
+
+  @SuppressWarnings("unchecked")
+  BerBufferPool(int maxBuffersPerClass, boolean leakDetection) {
+    if (maxBuffersPerClass < 0) {
+      throw new IllegalArgumentException("max buffers per class must not be negative: " + maxBuffersPerClass);
+    }
+    slotsPerStripe = (maxBuffersPerClass + STRIPES - 1) / STRIPES;
+    threadCacheSize = Math.min(THREAD_CACHE_SIZE, maxBuffersPerClass);
+    threadCache = ThreadLocal.withInitial(() -> new ThreadCache(threadCacheSize));
+    stripes = new AtomicReferenceArray[2 * SIZE_CLASSES][STRIPES];
+    for (AtomicReferenceArray<ByteBuffer>[] classStripes : stripes) {
+      for (int i = 0; i < STRIPES; i++) {
+        classStripes[i] = new AtomicReferenceArray<>(slotsPerStripe);
+      }
+    }
+    this.leakDetection = leakDetection;
+    this.acquired = leakDetection ? new ConcurrentHashMap<>() : null;
+    this.collected = leakDetection ? new ReferenceQueue<>() : null;
+  }
+
+  /**
+   * Returns a heap buffer whose position is 0 and limit is the requested capacity.
+   * The actual capacity may be larger.
+   *
+   * @param capacity the required capacity
+   * @return a heap ByteBuffer
+   */
+  public ByteBuffer acquire(final int capacity) {
+    return acquire(capacity, false);
+  }
+
+  /**
+   * Returns a direct buffer whose position is 0 and limit is the requested capacity.
+   * The actual capacity may be larger.
+   *
+   * @param capacity the required capacity
+   * @return a direct ByteBuffer
+   */
+  public ByteBuffer acquireDirect(final int capacity) {
+    return acquire(capacity, true);
+  }
+
+  /**
+   * Returns the buffer to the pool. The buffer must not be used after that.
+   * Buffers which do not match a size class are dropped.
+   *
+   * @param buffer the buffer acquired from the pool
+   * @exception IllegalStateException if leak detection is enabled and the buffer
+   *     has not been acquired from the pool or has been already released
+   */
+  public void release(final ByteBuffer buffer) {
+    if (leakDetection) {
+      untrack(buffer);
+    }
+    final int sizeClass = sizeClass(buffer.capacity());
+    if (sizeClass < 0 || buffer.capacity() != 1 << (sizeClass + MIN_SHIFT) || buffer.isReadOnly()) {
+      return;
+    }
+    buffer.clear();
+    final int kind = buffer.isDirect() ? 1 : 0;
+    if (sizeClass + MIN_SHIFT <= MAX_THREAD_CACHED_SHIFT && threadCacheSize > 0) {
+      ThreadCache cache = threadCache.get();
+      final int count = cache.counts[kind][sizeClass];
+      if (count < threadCacheSize) {
+        cache.buffers[kind][sizeClass][count] = buffer;
+        cache.counts[kind][sizeClass] = count + 1;
+        return;
+      }
+    }
+    final AtomicReferenceArray<ByteBuffer>[] classStripes = stripes[kind * SIZE_CLASSES + sizeClass];
+    final int first = stripe();
+    for (int s = 0; s < STRIPES; s++) {
+      final AtomicReferenceArray<ByteBuffer> stripe = classStripes[(first + s) & (STRIPES - 1)];
+      for (int i = 0; i < slotsPerStripe; i++) {
+        if (stripe.get(i) == null && stripe.compareAndSet(i, null, buffer)) {
+          return;
+        }
+      }
+    }
+  }
+
+  int leaks() {
+    pollCollected();
+    return leaks.get();
+  }
+
+  private ByteBuffer acquire(final int capacity, final boolean direct) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+    }
+    final int sizeClass = sizeClass(capacity);
+    ByteBuffer buffer = sizeClass < 0 ? allocate(capacity, direct) : poll(sizeClass, direct);
+    buffer.limit(capacity);
+    if (leakDetection) {
+      pollCollected();
+      LeakRecord record = new LeakRecord(buffer, collected);
+      acquired.put(record, record);
+    }
+    return buffer;
+  }
+
+  private static ByteBuffer allocate(final int capacity, final boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  private ByteBuffer poll(final int sizeClass, final boolean direct) {
+    final int kind = direct ? 1 : 0;
+    if (sizeClass + MIN_SHIFT <= MAX_THREAD_CACHED_SHIFT && threadCacheSize > 0) {
+      ThreadCache cache = threadCache.get();
+      final int count = cache.counts[kind][sizeClass];
+      if (count > 0) {
+        ByteBuffer buffer = cache.buffers[kind][sizeClass][count - 1];
+        cache.buffers[kind][sizeClass][count - 1] = null;
+        cache.counts[kind][sizeClass] = count - 1;
+        return buffer;
+      }
+    }
+    final AtomicReferenceArray<ByteBuffer>[] classStripes = stripes[kind * SIZE_CLASSES + sizeClass];
+    final int first = stripe();
+    for (int s = 0; s < STRIPES; s++) {
+      final AtomicReferenceArray<ByteBuffer> stripe = classStripes[(first + s) & (STRIPES - 1)];
+      for (int i = 0; i < slotsPerStripe; i++) {
+        if (stripe.get(i) != null) {
+          ByteBuffer buffer = stripe.getAndSet(i, null);
+          if (buffer != null) {
+            return buffer;
+          }
+        }
+      }
+    }
+    return allocate(1 << (sizeClass + MIN_SHIFT), direct);
+  }
+
+  private void pollCollected() {
+    LeakRecord record;
+    while ((record = (LeakRecord) collected.poll()) != null) {
+      if (acquired.remove(record) != null) {
+        leaks.incrementAndGet();
+        LOGGER.log(Level.WARNING, "ByteBuffer acquired from BerBufferPool was not released", record.trace);
+      }
+    }
+  }
+
+  private void untrack(final ByteBuffer buffer) {
+    pollCollected();
+    LeakRecord record = acquired.remove(new LeakRecord(buffer));
+    if (record != null) {
+      record.clear();
+      return;
+    }
+    throw new IllegalStateException("ByteBuffer has not been acquired from the pool or has been already released");
+  }
+
+  private static int sizeClass(final int capacity) {
+    if (capacity > 1 << MAX_SHIFT) {
+      return -1;
+    }
+    final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+    return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+  }
+
+  private static int stripe() {
+    return (int) Thread.currentThread().getId() & (STRIPES - 1);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Registry of {@link BerBufferFactory} instances by memory type.
+ *
+ * <p>Factories of byte arrays and {@link ByteBuffer} are registered by default, their buffers check
+ * every index and range. A factory
+ * registered for a class or an interface also serves its subtypes unless a subtype has its own
+ * factory, the superclass chain is searched before interfaces.
+ */
+public final class BerBufferRegistry {
+
+  private static final ConcurrentMap<Class<?>, BerBufferFactory<?>> FACTORIES = new ConcurrentHashMap<>();
+
+  static {
+    register(byte[].class, src -> new CheckedBerBuffer(BerBufferUtil.create(src)));
+    register(ByteBuffer.class, src -> new CheckedBerBuffer(BerBufferUtil.create(src)));
+  }
+
+  /**
+   * Returns a BerBuffer over the supplied memory created by the factory of its type.
+   *
+   * @param source the memory
+   * @return new BerBuffer instance
+   * @exception IllegalArgumentException if there is no factory for the type of the memory
+   */
+  @SuppressWarnings("unchecked")
+  public static BerBuffer create(final Object source) {
+    BerBufferFactory<Object> factory = (BerBufferFactory<Object>) lookup(source.getClass());
+    if (factory == null) {
+      throw new IllegalArgumentException("no BerBufferFactory registered for " + source.getClass().getName());
+    }
+    return factory.create(source);
+  }
+
+  /**
+   * Registers the factory of the memory type, a factory previously registered for the type is replaced.
+   *
+   * @param type the type of memory
+   * @param factory the factory of BerBuffer instances
+   * @param <T> the type of memory
+   */
+  public static <T> void register(final Class<T> type, final BerBufferFactory<? super T> factory) {
+    if (type.isPrimitive()) {
+      throw new IllegalArgumentException("memory type must not be primitive: " + type.getName());
+    }
+    FACTORIES.put(type, factory);
+  }
+
+  /**
+   * Removes the factory of the memory type.
+   *
+   * @param type the type of memory
+   * @return {@code true} if a factory has been registered for the type
+   */
+  public static boolean unregister(final Class<?> type) {
+    return FACTORIES.remove(type) != null;
+  }
+
+  private static @Nullable BerBufferFactory<?> lookup(final Class<?> type) {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      BerBufferFactory<?> factory = FACTORIES.get(c);
+      if (factory != null) {
+        return factory;
+      }
+    }
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      BerBufferFactory<?> factory = lookupInterfaces(c);
+      if (factory != null) {
+        return factory;
+      }
+    }
+    return null;
+  }
+
+  private static @Nullable BerBufferFactory<?> lookupInterfaces(final Class<?> type) {
+    for (Class<?> i : type.getInterfaces()) {
+      BerBufferFactory<?> factory = FACTORIES.get(i);
+      if (factory == null) {
+        factory = lookupInterfaces(i);
+      }
+      if (factory != null) {
+        return factory;
+      }
+    }
+    return null;
+  }
+
+  private BerBufferRegistry() {
+    throw new AssertionError("Utility class");
+  }
+}
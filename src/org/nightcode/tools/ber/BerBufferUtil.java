@@ -17,7 +17,9 @@
 package org.nightcode.tools.ber;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.logging.Level;
@@ -30,8 +32,14 @@ final class BerBufferUtil {
   private static final Logger LOGGER = Logger.getLogger(BerBufferUtil.class.getName());
 
   private static final boolean HAS_UNSAFE;
+  private static final boolean HAS_VAR_HANDLE;
 
   static {
+    final boolean noVarHandle = getBoolean("org.nightcode.tools.ber.noVarHandle", false);
+    LOGGER.log(Level.FINE, String.format("-Dorg.nightcode.tools.ber.noVarHandle: %s", noVarHandle));
+    HAS_VAR_HANDLE = !noVarHandle && VarHandleSupport.isAvailable();
+    LOGGER.log(Level.FINER, String.format("VarHandle BerBuffer available: %s", HAS_VAR_HANDLE));
+
     final boolean noUnsafe = getBoolean("org.nightcode.tools.ber.noUnsafe", false);
     LOGGER.log(Level.FINE, String.format("-Dorg.nightcode.tools.ber.noUnsafe: %s", noUnsafe));
 
@@ -64,6 +72,9 @@ final class BerBufferUtil {
   }
 
   static BerBuffer create(byte[] src) {
+    if (HAS_VAR_HANDLE) {
+      return VarHandleSupport.create(src);
+    }
     if (HAS_UNSAFE) {
       return new UnsafeBerBuffer(src);
     }
@@ -71,15 +82,166 @@ final class BerBufferUtil {
   }
 
   static BerBuffer create(ByteBuffer src) {
-    if (HAS_UNSAFE) {
+    if (HAS_VAR_HANDLE) {
+      return VarHandleSupport.create(src);
+    }
+    if (HAS_UNSAFE && (src.hasArray() || src.isDirect())) {
       return new UnsafeBerBuffer(src);
     }
-    if (src.hasArray()) {
+    if (src.hasArray() && src.arrayOffset() == 0 && src.array().length == src.capacity()) {
       return new HeapBerBuffer(src.array());
     }
     return new DirectBerBuffer(src);
   }
 
+  /**
+   * Copies the bytes of the source buffer starting at the index into the destination buffer.
+   * A composite source is copied fragment by fragment, so it is never gathered into one buffer.
+   */
+  static void copy(BerBuffer src, int index, BerBuffer dst, int dstIndex, int length) {
+    if (length == 0) {
+      return;
+    }
+    if (src instanceof CompositeBerBuffer) {
+      ((CompositeBerBuffer) src).copyTo(index, dst, dstIndex, length);
+      return;
+    }
+    final ByteBuffer view = src.duplicateByteBuffer();
+    view.limit(index + length);
+    view.position(index);
+    dst.putBytes(dstIndex, view, length);
+  }
+
+  /**
+   * Returns a read-only view of the supplied buffer without bounds checks of reads
+   * if the buffer is an UnsafeBerBuffer, a read-only BerBuffer of the same kind over srcBuffer
+   * otherwise. The view may be used only for reads inside ranges which have been validated
+   * with the supplied buffer.
+   */
+  static BerBuffer trustedView(BerBuffer buffer, ByteBuffer src) {
+    if (buffer instanceof UnsafeBerBuffer) {
+      return ((UnsafeBerBuffer) buffer).trustedView();
+    }
+    return create(src.asReadOnlyBuffer());
+  }
+
+  /**
+   * Releases the mapping of the supplied buffer at once if the JDK allows it, otherwise
+   * the mapping is released when the buffer is garbage collected. The buffer and every view
+   * of it must not be accessed afterwards.
+   */
+  static void unmap(MappedByteBuffer buffer) {
+    AccessController.doPrivileged(new PrivilegedAction<Object>() {
+      @Override public Object run() {
+        try {
+          try {
+            final Method invokeCleaner = Unsafe.class.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            invokeCleaner.invoke(unsafeField.get(null), buffer);
+          } catch (NoSuchMethodException ex) {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+              cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+          }
+        } catch (Exception ex) {
+          LOGGER.log(Level.FINE, "unable to unmap buffer, the mapping is released by GC", ex);
+        }
+        return null;
+      }
+    });
+  }
+
+  static boolean hasOrderedAccess() {
+    return HAS_VAR_HANDLE || HAS_UNSAFE;
+  }
+
+  /**
+   * Reads a native-order long from the aligned index of the direct buffer with volatile semantics,
+   * so the reader observes the writes which precede {@link #putLongOrdered} of the value
+   * in another thread or process mapping the same memory.
+   */
+  static long getLongVolatile(ByteBuffer buffer, int index) {
+    if (HAS_VAR_HANDLE) {
+      return VarHandleSupport.getLongVolatile(buffer, index);
+    }
+    if (HAS_UNSAFE) {
+      return UnsafeBerBuffer.getLongVolatile(buffer, index);
+    }
+    throw new UnsupportedOperationException("ordered memory access requires Java 9 or sun.misc.Unsafe");
+  }
+
+  /**
+   * Writes a native-order long to the aligned index of the direct buffer with release semantics.
+   */
+  static void putLongOrdered(ByteBuffer buffer, int index, long value) {
+    if (HAS_VAR_HANDLE) {
+      VarHandleSupport.putLongOrdered(buffer, index, value);
+    } else if (HAS_UNSAFE) {
+      UnsafeBerBuffer.putLongOrdered(buffer, index, value);
+    } else {
+      throw new UnsupportedOperationException("ordered memory access requires Java 9 or sun.misc.Unsafe");
+    }
+  }
+
+  static boolean rangeEquals(BerBuffer left, int leftIndex, BerBuffer right, int rightIndex, int length) {
+    if (left == right && leftIndex == rightIndex) {
+      return true;
+    }
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      if (left.getLong(leftIndex + i) != right.getLong(rightIndex + i)) {
+        return false;
+      }
+    }
+    if (i + 4 <= length) {
+      if (left.getInt(leftIndex + i) != right.getInt(rightIndex + i)) {
+        return false;
+      }
+      i += 4;
+    }
+    if (i + 2 <= length) {
+      if (left.getShort(leftIndex + i) != right.getShort(rightIndex + i)) {
+        return false;
+      }
+      i += 2;
+    }
+    return i == length || left.getByte(leftIndex + i) == right.getByte(rightIndex + i);
+  }
+
+  static boolean rangeEquals(BerBuffer buffer, int index, byte[] target) {
+    final int length = target.length;
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      if (buffer.getLong(index + i) != ((long) getInt(target, i) << 32 | (getInt(target, i + 4) & 0xFFFFFFFFL))) {
+        return false;
+      }
+    }
+    if (i + 4 <= length) {
+      if (buffer.getInt(index + i) != getInt(target, i)) {
+        return false;
+      }
+      i += 4;
+    }
+    if (i + 2 <= length) {
+      if (buffer.getShort(index + i) != (short) ((target[i] << 8) | (target[i + 1] & 0xFF))) {
+        return false;
+      }
+      i += 2;
+    }
+    return i == length || buffer.getByte(index + i) == target[i];
+  }
+
+  private static int getInt(byte[] src, int index) {
+    return (src[index] << 24)
+        | ((src[index + 1] & 0xFF) << 16)
+        | ((src[index + 2] & 0xFF) << 8)
+        | (src[index + 3] & 0xFF);
+  }
+
   static boolean getBoolean(String key, boolean def) {
     String value = System.getProperty(key);
     if (value == null) {
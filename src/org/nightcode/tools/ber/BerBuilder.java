@@ -19,8 +19,15 @@ package org.nightcode.tools.ber;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 /**
  * Collects BER tags which will be used to create ber packet.
@@ -36,116 +43,363 @@ public final class BerBuilder {
     return new BerBuilder();
   }
 
+  private static final long[] POWERS_OF_100 = {
+      1L, 100L, 10_000L, 1_000_000L, 100_000_000L, 10_000_000_000L, 1_000_000_000_000L, 100_000_000_000_000L
+      , 10_000_000_000_000_000L, 1_000_000_000_000_000_000L
+  };
+
   private static abstract class BerTlvContainer {
+    private final byte[] identifierOctets = new byte[4];
+    byte[] identifier;
+    int identifierLength;
+    int numberOfLengthOctets;
 
-    void putLengthOctets(final OutputStream out, final int contentLength) throws IOException {
-      if (contentLength < 0x80) {
-        out.write((byte) (contentLength & 0x7F));
-      } else if (contentLength < 0x100) {
-        out.write((byte) 0x81);
-        out.write((byte) contentLength);
-      } else if (contentLength < 0x10000) {
-        out.write((byte) 0x82);
-        out.write((byte) (contentLength >>> 8));
-        out.write((byte) (contentLength >>> 0));
-      } else if (contentLength < 0x1000000) {
-        out.write((byte) 0x83);
-        out.write((byte) (contentLength >>> 16));
-        out.write((byte) (contentLength >>>  8));
-        out.write((byte) (contentLength >>>  0));
-      } else {
-        out.write((byte) 0x84);
-        out.write((byte) (contentLength >>> 24));
-        out.write((byte) (contentLength >>> 16));
-        out.write((byte) (contentLength >>>  8));
-        out.write((byte) (contentLength >>>  0));
-      }
+    final void setIdentifier(final int identifier) {
+      identifierLength = BerUtil.putIdentifier(identifierOctets, identifier);
+      this.identifier = identifierOctets;
     }
 
-    void putLengthOctets(final BerBuffer buffer, final int offset, final int contentLength) {
-      if (contentLength < 0x80) {
-        buffer.putByte(offset, (byte) (contentLength & 0x7F));
-      } else if (contentLength < 0x100) {
-        buffer.putByte(offset, (byte) 0x81);
-        buffer.putByte(offset + 1, (byte) contentLength);
-      } else if (contentLength < 0x10000) {
-        buffer.putByte(offset, (byte) 0x82);
-        buffer.putByte(offset + 1, (byte) (contentLength >>> 8));
-        buffer.putByte(offset + 2, (byte) (contentLength >>> 0));
-      } else if (contentLength < 0x1000000) {
-        buffer.putByte(offset, (byte) 0x83);
-        buffer.putByte(offset + 1, (byte) (contentLength >>> 16));
-        buffer.putByte(offset + 2, (byte) (contentLength >>>  8));
-        buffer.putByte(offset + 3, (byte) (contentLength >>>  0));
-      } else {
-        buffer.putByte(offset, (byte) 0x84);
-        buffer.putInt(offset + 1, contentLength);
+    final void setIdentifier(final byte[] identifier) {
+      BerUtil.checkIdentifier(identifier);
+      identifierLength = identifier.length;
+      this.identifier = identifier;
+    }
+
+    final void setIdentifier(final BerBuffer src, final int position, final int length) {
+      identifier = length <= identifierOctets.length ? identifierOctets : new byte[length];
+      identifierLength = src.getBytes(position, identifier, 0, length);
+    }
+
+    final void sortIfSet(BerBuffer buffer, int contentPosition, int contentLength, @Nullable byte[][] setIdentifiers) {
+      if (setIdentifiers != null && DerSorter.isSet(setIdentifiers, identifier, identifierLength)) {
+        DerSorter.sort(buffer, contentPosition, contentLength);
       }
     }
 
-    abstract int writeTo(BerBuffer buffer, int offset);
+    final int encodedLength() {
+      return identifierLength + numberOfLengthOctets + contentLength();
+    }
+
+    abstract int contentLength();
+
+    abstract void recycle(BerBuilder owner);
+
+    abstract int writeTo(BerBuffer buffer, int offset, @Nullable byte[][] setIdentifiers);
 
-    abstract void writeTo(OutputStream out) throws IOException;
+    abstract void writeTo(Chunk chunk) throws IOException;
   }
 
   private static final class BerTlvContainerByteArray extends BerTlvContainer {
-    private final byte[] identifier;
-    private final int numberOfLengthOctets;
-    private final byte[] content;
+    private byte[] content;
 
-    private BerTlvContainerByteArray(final byte[] identifier, final int numberOfLengthOctets, final byte[] content) {
-      BerUtil.checkIdentifier(identifier);
-      this.identifier = identifier;
-      this.numberOfLengthOctets = numberOfLengthOctets;
-      this.content = content;
+    @Override int contentLength() {
+      return content.length;
     }
 
-    @Override public int writeTo(final BerBuffer buffer, final int offset) {
-      buffer.putBytes(offset, identifier);
-      int index = offset + identifier.length;
-      putLengthOctets(buffer, index, content.length);
+    @Override void recycle(final BerBuilder owner) {
+      identifier = null;
+      content = null;
+      owner.freeByteArrayContainers.add(this);
+    }
+
+    @Override public int writeTo(final BerBuffer buffer, final int offset, final byte[][] setIdentifiers) {
+      buffer.putBytes(offset, identifier, 0, identifierLength);
+      int index = offset + identifierLength;
+      BerUtil.putLengthOctets(buffer, index, content.length);
       index += numberOfLengthOctets;
       buffer.putBytes(index, content);
+      sortIfSet(buffer, index, content.length, setIdentifiers);
       return index + content.length;
     }
 
-    @Override void writeTo(OutputStream out) throws IOException {
-      out.write(identifier);
-      putLengthOctets(out, content.length);
-      out.write(content);
+    @Override void writeTo(final Chunk chunk) throws IOException {
+      chunk.putHeader(identifier, identifierLength, content.length);
+      chunk.put(content);
     }
   }
 
   private static final class BerTlvContainerBuilder extends BerTlvContainer {
-    private final byte[] identifier;
-    private final int numberOfLengthOctets;
-    private final BerBuilder builder;
+    private BerBuilder builder;
 
-    private BerTlvContainerBuilder(final byte[] identifier, final int numberOfLengthOctets, final BerBuilder builder) {
-      BerUtil.checkIdentifier(identifier);
-      this.identifier = identifier;
-      this.numberOfLengthOctets = numberOfLengthOctets;
-      this.builder = builder;
+    @Override int contentLength() {
+      return builder.length;
+    }
+
+    @Override void recycle(final BerBuilder owner) {
+      identifier = null;
+      builder = null;
+      owner.freeBuilderContainers.add(this);
     }
 
-    @Override public int writeTo(final BerBuffer buffer, final int offset) {
-      buffer.putBytes(offset, identifier);
-      int index = offset + identifier.length;
-      putLengthOctets(buffer, index, builder.length);
+    @Override public int writeTo(final BerBuffer buffer, final int offset, final byte[][] setIdentifiers) {
+      buffer.putBytes(offset, identifier, 0, identifierLength);
+      int index = offset + identifierLength;
+      BerUtil.putLengthOctets(buffer, index, builder.length);
       index += numberOfLengthOctets;
-      builder.writeTo(buffer, index);
+      builder.writeTo(buffer, index, setIdentifiers);
+      sortIfSet(buffer, index, builder.length, setIdentifiers);
       return index + builder.length;
     }
 
-    @Override void writeTo(OutputStream out) throws IOException {
-      out.write(identifier);
-      putLengthOctets(out, builder.length);
-      builder.writeTo(out);
+    @Override void writeTo(final Chunk chunk) throws IOException {
+      chunk.putHeader(identifier, identifierLength, builder.length);
+      builder.writeTo(chunk);
+    }
+  }
+
+  private static final class BerTlvContainerSlice extends BerTlvContainer {
+    private BerBuffer src;
+    private int position;
+    private int length;
+    private boolean raw;
+
+    @Override int contentLength() {
+      return length;
+    }
+
+    @Override void recycle(final BerBuilder owner) {
+      identifier = null;
+      src = null;
+      owner.freeSliceContainers.add(this);
+    }
+
+    @Override public int writeTo(final BerBuffer buffer, final int offset, final byte[][] setIdentifiers) {
+      int index = offset;
+      if (!raw) {
+        buffer.putBytes(index, identifier, 0, identifierLength);
+        index += identifierLength;
+        BerUtil.putLengthOctets(buffer, index, length);
+        index += numberOfLengthOctets;
+      }
+      BerBufferUtil.copy(src, position, buffer, index, length);
+      if (!raw) {
+        sortIfSet(buffer, index, length, setIdentifiers);
+      }
+      return index + length;
+    }
+
+    @Override void writeTo(final Chunk chunk) throws IOException {
+      if (!raw) {
+        chunk.putHeader(identifier, identifierLength, length);
+      }
+      chunk.put(src, position, length);
+    }
+  }
+
+  private static final class BerTlvContainerNumber extends BerTlvContainer {
+    // a long takes at most 8 binary or 10 BCD octets, the rest of the width is zero padding
+    private static final int MAX_VALUE_OCTETS = 10;
+
+    private long value;
+    private int width;
+    private boolean bcd;
+
+    @Override int contentLength() {
+      return width;
+    }
+
+    @Override void recycle(final BerBuilder owner) {
+      identifier = null;
+      owner.freeNumberContainers.add(this);
+    }
+
+    @Override public int writeTo(final BerBuffer buffer, final int offset, final byte[][] setIdentifiers) {
+      buffer.putBytes(offset, identifier, 0, identifierLength);
+      int index = offset + identifierLength;
+      BerUtil.putLengthOctets(buffer, index, width);
+      index += numberOfLengthOctets;
+      putValue(buffer, index, width);
+      return index + width;
+    }
+
+    @Override void writeTo(final Chunk chunk) throws IOException {
+      chunk.putHeader(identifier, identifierLength, width);
+      final int valueWidth = Math.min(width, MAX_VALUE_OCTETS);
+      chunk.putZeros(width - valueWidth);
+      putValue(chunk.buffer, chunk.reserve(valueWidth), valueWidth);
+    }
+
+    private void putValue(final BerBuffer buffer, final int index, final int valueWidth) {
+      long v = value;
+      for (int i = index + valueWidth - 1; i >= index; i--) {
+        if (bcd) {
+          buffer.putByte(i, (byte) ((v % 10) | ((v / 10 % 10) << 4)));
+          v /= 100;
+        } else {
+          buffer.putByte(i, (byte) v);
+          v >>>= 8;
+        }
+      }
+    }
+  }
+
+  /**
+   * Encodes a range of containers of a builder at precomputed offsets. Large ranges are split
+   * in halves, a single nested builder with many containers is encoded by a task of its own.
+   */
+  private static final class WriteTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int SEQUENTIAL_THRESHOLD = 1024;
+
+    private final BerBuilder builder;
+    private final int[] offsets;
+    private final int from;
+    private final int to;
+    private final BerBuffer buffer;
+    private final @Nullable byte[][] setIdentifiers;
+
+    private WriteTask(BerBuilder builder, int offset, BerBuffer buffer, @Nullable byte[][] inheritedSetIdentifiers) {
+      this(builder, builder.offsets(offset), 0, builder.containers.size(), buffer
+          , builder.setIdentifiers != null ? builder.setIdentifiers : inheritedSetIdentifiers);
+    }
+
+    private WriteTask(BerBuilder builder, int[] offsets, int from, int to, BerBuffer buffer,
+        @Nullable byte[][] setIdentifiers) {
+      this.builder = builder;
+      this.offsets = offsets;
+      this.from = from;
+      this.to = to;
+      this.buffer = buffer;
+      this.setIdentifiers = setIdentifiers;
+    }
+
+    @Override protected void compute() {
+      if (to - from > SEQUENTIAL_THRESHOLD) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new WriteTask(builder, offsets, from, middle, buffer, setIdentifiers)
+            , new WriteTask(builder, offsets, middle, to, buffer, setIdentifiers));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        BerTlvContainer container = builder.containers.get(i);
+        if (container instanceof BerTlvContainerBuilder
+            && ((BerTlvContainerBuilder) container).builder.containers.size() > SEQUENTIAL_THRESHOLD) {
+          BerBuilder nested = ((BerTlvContainerBuilder) container).builder;
+          int index = offsets[i];
+          buffer.putBytes(index, container.identifier, 0, container.identifierLength);
+          index += container.identifierLength;
+          BerUtil.putLengthOctets(buffer, index, nested.length);
+          index += container.numberOfLengthOctets;
+          new WriteTask(nested, index, buffer, setIdentifiers).invoke();
+          container.sortIfSet(buffer, index, nested.length, setIdentifiers);
+        } else {
+          container.writeTo(buffer, offsets[i], setIdentifiers);
+        }
+      }
+    }
+  }
+
+  /**
+   * Collects encoded octets for stream and channel destinations, so they receive
+   * large blocks instead of separate writes of every identifier, length and contents.
+   */
+  private static final class Chunk {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final byte[] array = new byte[CHUNK_SIZE];
+    private final BerBuffer buffer = BerBufferUtil.create(array);
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(array);
+    private @Nullable OutputStream out;
+    private @Nullable WritableByteChannel channel;
+    private int position;
+
+    void put(final byte[] content) throws IOException {
+      if (content.length > CHUNK_SIZE - position) {
+        flush();
+        if (content.length >= CHUNK_SIZE) {
+          if (out != null) {
+            out.write(content);
+          } else {
+            write(ByteBuffer.wrap(content));
+          }
+          return;
+        }
+      }
+      System.arraycopy(content, 0, array, position, content.length);
+      position += content.length;
+    }
+
+    void put(final BerBuffer src, final int index, final int length) throws IOException {
+      int done = 0;
+      while (done < length) {
+        if (position == CHUNK_SIZE) {
+          flush();
+        }
+        final int count = Math.min(length - done, CHUNK_SIZE - position);
+        src.getBytes(index + done, array, position, count);
+        position += count;
+        done += count;
+      }
+    }
+
+    void putZeros(final int length) throws IOException {
+      int remaining = length;
+      while (remaining > 0) {
+        if (position == CHUNK_SIZE) {
+          flush();
+        }
+        final int count = Math.min(remaining, CHUNK_SIZE - position);
+        Arrays.fill(array, position, position + count, (byte) 0);
+        position += count;
+        remaining -= count;
+      }
+    }
+
+    int reserve(final int length) throws IOException {
+      if (length > CHUNK_SIZE - position) {
+        flush();
+      }
+      final int index = position;
+      position += length;
+      return index;
+    }
+
+    void putHeader(final byte[] identifier, final int identifierLength, final int contentLength)
+        throws IOException {
+      if (identifierLength + 5 > CHUNK_SIZE - position) {
+        flush();
+      }
+      System.arraycopy(identifier, 0, array, position, identifierLength);
+      position += identifierLength;
+      BerUtil.putLengthOctets(buffer, position, contentLength);
+      position += BerUtil.calculateNumberOfLengthOctets(contentLength);
+    }
+
+    void flush() throws IOException {
+      if (position == 0) {
+        return;
+      }
+      if (out != null) {
+        out.write(array, 0, position);
+      } else {
+        byteBuffer.limit(position);
+        byteBuffer.position(0);
+        write(byteBuffer);
+      }
+      position = 0;
+    }
+
+    private void write(final ByteBuffer src) throws IOException {
+      while (src.hasRemaining()) {
+        channel.write(src);
+      }
+    }
+
+    private void release() {
+      out = null;
+      channel = null;
+      position = 0;
     }
   }
 
   private int length;
-  private List<BerTlvContainer> containers;
+  private final List<BerTlvContainer> containers;
+  private final List<BerTlvContainerByteArray> freeByteArrayContainers = new ArrayList<>();
+  private final List<BerTlvContainerBuilder> freeBuilderContainers = new ArrayList<>();
+  private final List<BerTlvContainerSlice> freeSliceContainers = new ArrayList<>();
+  private final List<BerTlvContainerNumber> freeNumberContainers = new ArrayList<>();
+  private @Nullable byte[][] setIdentifiers;
+  private final AtomicReference<Chunk> chunkCache = new AtomicReference<>();
 
   private BerBuilder() {
     containers = new ArrayList<>();
@@ -168,6 +422,112 @@ public final class BerBuilder {
     return this;
   }
 
+  /**
+   * Adds all BER tags from supplied BerFrame without copying their contents octets.
+   * The contents octets are copied from the source buffer of the frame when the builder is encoded,
+   * so the source buffer must not be modified or released before: a reference-counted frame
+   * must stay retained until the builder has been encoded.
+   *
+   * @param berFrame the supplied BerFrame
+   */
+  public BerBuilder addRef(BerFrame berFrame) {
+    final BerBuffer src = berFrame.berBuffer();
+    for (BerTlv berTlv : berFrame.getTlvs()) {
+      BerTlvContainerSlice container = sliceContainer();
+      container.setIdentifier(src, berTlv.identifierPosition(), berTlv.identifierLength());
+      add(container, src, berTlv.contentPosition(), berTlv.contentLength(), false);
+    }
+    return this;
+  }
+
+  /**
+   * Adds the remaining bytes of the supplied buffer as the contents octets of a BER tag.
+   * The bytes are not copied until the builder is encoded, so they must not be modified before.
+   *
+   * @param identifier the BER tag value
+   * @param content the contents octets
+   */
+  public BerBuilder add(final int identifier, final ByteBuffer content) {
+    BerTlvContainerSlice container = sliceContainer();
+    container.setIdentifier(identifier);
+    return add(container, BerBufferUtil.create(content), content.position(), content.remaining(), false);
+  }
+
+  /**
+   * Adds the remaining bytes of the supplied buffer as the contents octets of a BER tag.
+   * The bytes are not copied until the builder is encoded, so they must not be modified before.
+   *
+   * @param identifier the BER tag value
+   * @param content the contents octets
+   */
+  public BerBuilder add(final byte[] identifier, final ByteBuffer content) {
+    BerTlvContainerSlice container = sliceContainer();
+    container.setIdentifier(identifier);
+    return add(container, BerBufferUtil.create(content), content.position(), content.remaining(), false);
+  }
+
+  /**
+   * Adds the encoding of the supplied BerFrame as the contents octets of a constructed BER tag.
+   * The encoding is copied from the source buffer of the frame when the builder is encoded,
+   * so a reference-counted frame must stay retained until then.
+   *
+   * @param identifier the BER tag value
+   * @param berFrame the contents octets
+   */
+  public BerBuilder add(final int identifier, final BerFrame berFrame) {
+    BerTlvContainerSlice container = sliceContainer();
+    container.setIdentifier(identifier);
+    return add(container, berFrame.berBuffer(), berFrame.offset()
+        , berFrame.limit() - berFrame.offset(), false);
+  }
+
+  /**
+   * Adds the encoding of the supplied BerFrame as the contents octets of a constructed BER tag.
+   * The encoding is copied from the source buffer of the frame when the builder is encoded,
+   * so a reference-counted frame must stay retained until then.
+   *
+   * @param identifier the BER tag value
+   * @param berFrame the contents octets
+   */
+  public BerBuilder add(final byte[] identifier, final BerFrame berFrame) {
+    BerTlvContainerSlice container = sliceContainer();
+    container.setIdentifier(identifier);
+    return add(container, berFrame.berBuffer(), berFrame.offset()
+        , berFrame.limit() - berFrame.offset(), false);
+  }
+
+  /**
+   * Adds already encoded BER tags which are written as is.
+   *
+   * @param encoded the encoded BER tags
+   */
+  public BerBuilder addRaw(final byte[] encoded) {
+    return addRaw(ByteBuffer.wrap(encoded));
+  }
+
+  /**
+   * Adds the remaining bytes of the supplied buffer as already encoded BER tags which are written as is.
+   * The bytes are not copied until the builder is encoded, so they must not be modified before.
+   *
+   * @param encoded the encoded BER tags
+   */
+  public BerBuilder addRaw(final ByteBuffer encoded) {
+    return add(sliceContainer(), BerBufferUtil.create(encoded), encoded.position(), encoded.remaining()
+        , true);
+  }
+
+  /**
+   * Adds the encoding of the supplied BerFrame which is written as is.
+   * The encoding is copied from the source buffer of the frame when the builder is encoded,
+   * so a reference-counted frame must stay retained until then.
+   *
+   * @param berFrame the encoded BER tags
+   */
+  public BerBuilder addRaw(final BerFrame berFrame) {
+    return add(sliceContainer(), berFrame.berBuffer(), berFrame.offset()
+        , berFrame.limit() - berFrame.offset(), true);
+  }
+
   /**
    * Adds a bytes array for encoding.
    *
@@ -221,8 +581,9 @@ public final class BerBuilder {
    * @param content the contents octets
    */
   public BerBuilder add(final int identifier, final byte[] content) {
-    final byte[] buffer = BerUtil.identifierToByteArray(identifier);
-    return add(buffer, content);
+    BerTlvContainerByteArray container = byteArrayContainer();
+    container.setIdentifier(identifier);
+    return add(container, content);
   }
 
   /**
@@ -243,11 +604,9 @@ public final class BerBuilder {
    * @param content the contents octets
    */
   public BerBuilder add(final byte[] identifier, final byte[] content) {
-    final int numberOfLengthOctets = calculateNumberOfLengthOctets(content.length);
-    BerTlvContainer container = new BerTlvContainerByteArray(identifier, numberOfLengthOctets, content);
-    containers.add(container);
-    length += (identifier.length + numberOfLengthOctets + content.length);
-    return this;
+    BerTlvContainerByteArray container = byteArrayContainer();
+    container.setIdentifier(identifier);
+    return add(container, content);
   }
 
   /**
@@ -303,8 +662,9 @@ public final class BerBuilder {
    * @param builder the contents octets
    */
   public BerBuilder add(final int identifier, final BerBuilder builder) {
-    final byte[] buffer = BerUtil.identifierToByteArray(identifier);
-    return add(buffer, builder);
+    BerTlvContainerBuilder container = builderContainer();
+    container.setIdentifier(identifier);
+    return add(container, builder);
   }
 
   /**
@@ -325,11 +685,123 @@ public final class BerBuilder {
    * @param builder the contents octets
    */
   public BerBuilder add(final byte[] identifier, final BerBuilder builder) {
-    final int numberOfLengthOctets = calculateNumberOfLengthOctets(builder.length);
-    BerTlvContainer container = new BerTlvContainerBuilder(identifier, numberOfLengthOctets, builder);
-    containers.add(container);
-    length += (identifier.length + numberOfLengthOctets + builder.length);
-    return this;
+    BerTlvContainerBuilder container = builderContainer();
+    container.setIdentifier(identifier);
+    return add(container, builder);
+  }
+
+  /**
+   * Adds a single octet value for encoding.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octet
+   */
+  public BerBuilder addByte(final int identifier, final byte value) {
+    return addNumber(identifier, null, value & 0xFF, 1, false);
+  }
+
+  /**
+   * Adds a single octet value for encoding.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octet
+   */
+  public BerBuilder addByte(final byte[] identifier, final byte value) {
+    return addNumber(0, identifier, value & 0xFF, 1, false);
+  }
+
+  /**
+   * Adds an int value for encoding as four octets in big-endian order.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   */
+  public BerBuilder addInt(final int identifier, final int value) {
+    return addNumber(identifier, null, value & 0xFFFFFFFFL, 4, false);
+  }
+
+  /**
+   * Adds an int value for encoding as four octets in big-endian order.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   */
+  public BerBuilder addInt(final byte[] identifier, final int value) {
+    return addNumber(0, identifier, value & 0xFFFFFFFFL, 4, false);
+  }
+
+  /**
+   * Adds an unsigned long value for encoding in the minimal number of octets in big-endian order.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   */
+  public BerBuilder addUnsignedLong(final int identifier, final long value) {
+    return addNumber(identifier, null, value, minimalWidth(value), false);
+  }
+
+  /**
+   * Adds an unsigned long value for encoding in the supplied number of octets in big-endian order.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   * @param width the number of contents octets (1 - 8)
+   * @exception IllegalArgumentException if the value does not fit into the supplied number of octets
+   */
+  public BerBuilder addUnsignedLong(final int identifier, final long value, final int width) {
+    checkUnsignedLong(value, width);
+    return addNumber(identifier, null, value, width, false);
+  }
+
+  /**
+   * Adds an unsigned long value for encoding in the minimal number of octets in big-endian order.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   */
+  public BerBuilder addUnsignedLong(final byte[] identifier, final long value) {
+    return addNumber(0, identifier, value, minimalWidth(value), false);
+  }
+
+  /**
+   * Adds an unsigned long value for encoding in the supplied number of octets in big-endian order.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   * @param width the number of contents octets (1 - 8)
+   * @exception IllegalArgumentException if the value does not fit into the supplied number of octets
+   */
+  public BerBuilder addUnsignedLong(final byte[] identifier, final long value, final int width) {
+    checkUnsignedLong(value, width);
+    return addNumber(0, identifier, value, width, false);
+  }
+
+  /**
+   * Adds a non-negative value for encoding as packed BCD digits left-padded with zeros,
+   * e.g. 1000 with width 6 is encoded as 000000001000.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   * @param width the number of contents octets, two digits per octet
+   * @exception IllegalArgumentException if the value is negative or does not fit into the supplied number of octets
+   */
+  public BerBuilder addBcd(final int identifier, final long value, final int width) {
+    checkBcd(value, width);
+    return addNumber(identifier, null, value, width, true);
+  }
+
+  /**
+   * Adds a non-negative value for encoding as packed BCD digits left-padded with zeros,
+   * e.g. 1000 with width 6 is encoded as 000000001000.
+   *
+   * @param identifier the BER tag value
+   * @param value the contents octets
+   * @param width the number of contents octets, two digits per octet
+   * @exception IllegalArgumentException if the value is negative or does not fit into the supplied number of octets
+   */
+  public BerBuilder addBcd(final byte[] identifier, final long value, final int width) {
+    checkBcd(value, width);
+    return addNumber(0, identifier, value, width, true);
   }
 
   /**
@@ -497,6 +969,34 @@ public final class BerBuilder {
     return length;
   }
 
+  /**
+   * Switches the builder to DER mode: members of SET and SET OF values (identifier 0x31)
+   * and of the supplied constructed BER tags are written in ascending order of their encodings.
+   * Length octets are always definite and minimal. The mode applies to nested builders,
+   * contents added with {@code addRaw} are written as is.
+   *
+   * @param setIdentifiers additional BER tags which contents must be sorted, e.g. implicitly tagged SET OF
+   */
+  public BerBuilder der(final int... setIdentifiers) {
+    this.setIdentifiers = DerSorter.setIdentifiers(setIdentifiers);
+    return this;
+  }
+
+  /**
+   * Removes all BER tags from the builder. Internal containers are kept for reuse,
+   * so a builder which is reset and filled again with the same number of BER tags
+   * does not allocate, nor does its encoding with {@link #writeTo(BerBuffer, int)}
+   * into a reused BerBuffer. Nested builders are not reset.
+   */
+  public BerBuilder reset() {
+    for (int i = containers.size() - 1; i >= 0; i--) {
+      containers.get(i).recycle(this);
+    }
+    containers.clear();
+    length = 0;
+    return this;
+  }
+
   /**
    * Encode the BER data which contains in the builder.
    *
@@ -525,42 +1025,234 @@ public final class BerBuilder {
   public void writeTo(ByteBuffer dstBuffer, int offset) {
     final BerBuffer berBuffer = BerBufferUtil.create(dstBuffer);
     berBuffer.checkLimit(offset + length);
-    writeTo(berBuffer, offset);
+    writeTo(berBuffer, offset, setIdentifiers);
   }
 
   /**
    * Encode the BER data which contains in the builder.
    *
+   * @param dst the destination of encoded content, e.g. created by {@link BerBufferRegistry}
+   * @param offset in the supplied dst
+   * @exception java.lang.IndexOutOfBoundsException if the encoding does not fit into dst
+   */
+  public void writeTo(BerBuffer dst, int offset) {
+    dst.checkLimit(offset + length);
+    writeTo(dst, offset, setIdentifiers);
+  }
+
+  /**
+   * Encode the BER data which contains in the builder into a buffer acquired from the supplied pool.
+   * The encoding occupies the buffer from position 0 to its limit. The buffer should be returned
+   * with {@link BerBufferPool#release(ByteBuffer)} once the encoding is consumed.
+   *
+   * @param pool the pool of buffers
+   * @param direct whether a direct buffer is required
+   * @return the buffer which contains the encoding
+   */
+  public ByteBuffer writeTo(BerBufferPool pool, boolean direct) {
+    final ByteBuffer dstBuffer = direct ? pool.acquireDirect(length) : pool.acquire(length);
+    writeTo(BerBufferUtil.create(dstBuffer), 0, setIdentifiers);
+    return dstBuffer;
+  }
+
+  /**
+   * Encode the BER data which contains in the builder into the remaining space
+   * of the supplied buffers, filling them one after another, e.g. for a gathering write.
+   * Positions and limits of the buffers are not changed.
+   *
+   * @param dstBuffers the destination of encoded content
+   * @exception java.lang.IndexOutOfBoundsException if the encoding does not fit into dstBuffers
+   */
+  public void writeTo(ByteBuffer[] dstBuffers) {
+    final BerBuffer berBuffer = new CompositeBerBuffer(dstBuffers);
+    berBuffer.checkLimit(length);
+    writeTo(berBuffer, 0, setIdentifiers);
+  }
+
+  /**
+   * Encode the BER data which contains in the builder using the supplied pool.
+   * The output offset of every BER tag is known in advance, so ranges of BER tags,
+   * including contents of large nested builders, are encoded concurrently into disjoint
+   * parts of dstBuffer. The builder must not be modified until the method returns.
+   *
+   * @param dstBuffer the destination of encoded content
+   * @param offset in the supplied dstBuffer
+   * @param pool the pool which runs encoding tasks
+   */
+  public void writeTo(ByteBuffer dstBuffer, int offset, ForkJoinPool pool) {
+    final BerBuffer berBuffer = BerBufferUtil.create(dstBuffer);
+    berBuffer.checkLimit(offset + length);
+    pool.invoke(new WriteTask(this, offset, berBuffer, null));
+  }
+
+  /**
+   * Appends the BER data which contains in the builder to the supplied output buffer.
+   *
+   * @param output the destination of encoded content
+   */
+  public void writeTo(BerOutputBuffer output) {
+    final int offset = output.length();
+    output.ensureCapacity(offset + length);
+    writeTo(output.berBuffer(), offset, setIdentifiers);
+    output.length(offset + length);
+  }
+
+  /**
+   * Encode the BER data which contains in the builder.
+   * The encoding is passed to the stream in blocks of up to 8 KiB.
+   *
    * @param out the destination of encoded content
    * @throws IOException if an I/O error occurs
    */
   public void writeTo(OutputStream out) throws IOException {
-    for (BerTlvContainer container : containers) {
-      container.writeTo(out);
+    Chunk chunk = acquireChunk();
+    try {
+      chunk.out = out;
+      writeTo(chunk);
+      chunk.flush();
+    } finally {
+      releaseChunk(chunk);
     }
   }
 
-  private int calculateNumberOfLengthOctets(final int contentLength) {
-    final int numberOfLengthOctets;
-    if (contentLength < 0x80) {
-      numberOfLengthOctets = 1;
-    } else if (contentLength < 0x100) {
-      numberOfLengthOctets = 2;
-    } else if (contentLength < 0x10000) {
-      numberOfLengthOctets = 3;
-    } else if (contentLength < 0x1000000) {
-      numberOfLengthOctets = 4;
-    } else {
-      numberOfLengthOctets = 5;
+  /**
+   * Encode the BER data which contains in the builder.
+   * The encoding is passed to the channel in blocks of up to 8 KiB,
+   * the supplied channel is expected to be in blocking mode.
+   *
+   * @param channel the destination of encoded content
+   * @throws IOException if an I/O error occurs
+   */
+  public void writeTo(WritableByteChannel channel) throws IOException {
+    Chunk chunk = acquireChunk();
+    try {
+      chunk.channel = channel;
+      writeTo(chunk);
+      chunk.flush();
+    } finally {
+      releaseChunk(chunk);
     }
-    return numberOfLengthOctets;
   }
 
-  private void writeTo(final BerBuffer buffer, final int offset) {
+  private void writeTo(final BerBuffer buffer, final int offset, final @Nullable byte[][] inheritedSetIdentifiers) {
     buffer.checkLimit(offset + length);
+    final byte[][] sets = setIdentifiers != null ? setIdentifiers : inheritedSetIdentifiers;
     int index = offset;
-    for (BerTlvContainer container : containers) {
-      index = container.writeTo(buffer, index);
+    for (int i = 0; i < containers.size(); i++) {
+      index = containers.get(i).writeTo(buffer, index, sets);
+    }
+  }
+
+  private void writeTo(final Chunk chunk) throws IOException {
+    if (setIdentifiers != null) {
+      byte[] encoded = new byte[length];
+      writeTo(BerBufferUtil.create(encoded), 0, setIdentifiers);
+      chunk.put(encoded);
+      return;
     }
+    for (int i = 0; i < containers.size(); i++) {
+      containers.get(i).writeTo(chunk);
+    }
+  }
+
+  private int[] offsets(final int offset) {
+    final int[] offsets = new int[containers.size()];
+    int index = offset;
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = index;
+      index += containers.get(i).encodedLength();
+    }
+    return offsets;
+  }
+
+  private Chunk acquireChunk() {
+    Chunk chunk = chunkCache.getAndSet(null);
+    return chunk != null ? chunk : new Chunk();
+  }
+
+  private void releaseChunk(final Chunk chunk) {
+    chunk.release();
+    chunkCache.set(chunk);
+  }
+
+  private BerBuilder add(final BerTlvContainerByteArray container, final byte[] content) {
+    container.numberOfLengthOctets = BerUtil.calculateNumberOfLengthOctets(content.length);
+    container.content = content;
+    containers.add(container);
+    length += (container.identifierLength + container.numberOfLengthOctets + content.length);
+    return this;
+  }
+
+  private BerBuilder add(final BerTlvContainerBuilder container, final BerBuilder builder) {
+    container.numberOfLengthOctets = BerUtil.calculateNumberOfLengthOctets(builder.length);
+    container.builder = builder;
+    containers.add(container);
+    length += (container.identifierLength + container.numberOfLengthOctets + builder.length);
+    return this;
+  }
+
+  private BerBuilder add(final BerTlvContainerSlice container, final BerBuffer src, final int position,
+      final int length, final boolean raw) {
+    container.numberOfLengthOctets = raw ? 0 : BerUtil.calculateNumberOfLengthOctets(length);
+    container.src = src;
+    container.position = position;
+    container.length = length;
+    container.raw = raw;
+    if (raw) {
+      container.identifierLength = 0;
+    }
+    containers.add(container);
+    this.length += (container.identifierLength + container.numberOfLengthOctets + length);
+    return this;
+  }
+
+  private BerBuilder addNumber(final int identifier, final @Nullable byte[] identifierOctets, final long value,
+      final int width, final boolean bcd) {
+    final int size = freeNumberContainers.size();
+    BerTlvContainerNumber container = size > 0 ? freeNumberContainers.remove(size - 1) : new BerTlvContainerNumber();
+    if (identifierOctets != null) {
+      container.setIdentifier(identifierOctets);
+    } else {
+      container.setIdentifier(identifier);
+    }
+    container.numberOfLengthOctets = BerUtil.calculateNumberOfLengthOctets(width);
+    container.value = value;
+    container.width = width;
+    container.bcd = bcd;
+    containers.add(container);
+    length += (container.identifierLength + container.numberOfLengthOctets + width);
+    return this;
+  }
+
+  private static void checkUnsignedLong(final long value, final int width) {
+    if (width < 1 || width > 8 || minimalWidth(value) > width) {
+      throw new IllegalArgumentException("value " + Long.toUnsignedString(value) + " does not fit into "
+          + width + " octets");
+    }
+  }
+
+  private static void checkBcd(final long value, final int width) {
+    if (value < 0 || width < 1 || (width < 10 && value >= POWERS_OF_100[width])) {
+      throw new IllegalArgumentException("value " + value + " does not fit into " + width + " BCD octets");
+    }
+  }
+
+  private static int minimalWidth(final long value) {
+    return Math.max(1, (71 - Long.numberOfLeadingZeros(value)) >> 3);
+  }
+
+  private BerTlvContainerByteArray byteArrayContainer() {
+    final int size = freeByteArrayContainers.size();
+    return size > 0 ? freeByteArrayContainers.remove(size - 1) : new BerTlvContainerByteArray();
+  }
+
+  private BerTlvContainerBuilder builderContainer() {
+    final int size = freeBuilderContainers.size();
+    return size > 0 ? freeBuilderContainers.remove(size - 1) : new BerTlvContainerBuilder();
+  }
+
+  private BerTlvContainerSlice sliceContainer() {
+    final int size = freeSliceContainers.size();
+    return size > 0 ? freeSliceContainers.remove(size - 1) : new BerTlvContainerSlice();
   }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single difference between two BER frames.
+ */
+public final class BerDiff {
+
+  /**
+   * Kind of the difference.
+   */
+  public enum Type {
+    /** the BER tag exists only in the right frame. */
+    ADDED,
+    /** the BER tag exists only in the left frame. */
+    REMOVED,
+    /** the BER tag exists in both frames but contents octets differ. */
+    CHANGED
+  }
+
+  private final Type type;
+  private final List<byte[]> path;
+  private final @Nullable byte[] leftContent;
+  private final @Nullable byte[] rightContent;
+
+  BerDiff(Type type, List<byte[]> path, @Nullable byte[] leftContent, @Nullable byte[] rightContent) {
+    this.type = type;
+    this.path = Collections.unmodifiableList(new ArrayList<>(path));
+    this.leftContent = leftContent;
+    this.rightContent = rightContent;
+  }
+
+  /**
+   * @return the kind of the difference
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Returns identifiers of the BER tags from the first level down to the changed tag.
+   *
+   * @return the path to the changed tag
+   */
+  public List<byte[]> getPath() {
+    return path;
+  }
+
+  /**
+   * @return the identifier of the changed tag
+   */
+  public byte[] getIdentifier() {
+    return path.get(path.size() - 1);
+  }
+
+  /**
+   * Returns the contents octets of the tag in the left frame,
+   * or {@code null} if the tag was added.
+   *
+   * @return the contents octets of the left tag
+   */
+  public @Nullable byte[] getLeftContent() {
+    return leftContent;
+  }
+
+  /**
+   * Returns the contents octets of the tag in the right frame,
+   * or {@code null} if the tag was removed.
+   *
+   * @return the contents octets of the right tag
+   */
+  public @Nullable byte[] getRightContent() {
+    return rightContent;
+  }
+
+  /**
+   * Returns the path as hex coded identifiers separated by '/'.
+   *
+   * @return the path as a string
+   */
+  public String getPathAsHexString() {
+    StringBuilder builder = new StringBuilder();
+    for (byte[] identifier : path) {
+      if (builder.length() > 0) {
+        builder.append('/');
+      }
+      builder.append(BerUtil.byteArrayToHex(identifier));
+    }
+    return builder.toString();
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(type).append(' ').append(getPathAsHexString());
+    if (leftContent != null) {
+      builder.append(' ').append(BerUtil.byteArrayToHex(leftContent));
+    }
+    if (type == Type.CHANGED) {
+      builder.append(" ->");
+    }
+    if (rightContent != null) {
+      builder.append(' ').append(BerUtil.byteArrayToHex(rightContent));
+    }
+    return builder.toString();
+  }
+}
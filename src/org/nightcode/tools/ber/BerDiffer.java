@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The BerDiffer walks two BER frames in lockstep and collects their differences.
+ */
+final class BerDiffer {
+
+  static List<BerDiff> diff(final BerFrame left, final BerFrame right) {
+    List<BerDiff> result = new ArrayList<>();
+    final int length = left.limit() - left.offset();
+    if (length == right.limit() - right.offset()
+        && BerBufferUtil.rangeEquals(left.berBuffer(), left.offset(), right.berBuffer(), right.offset(), length)) {
+      return result;
+    }
+    diffLevel(left.berBuffer(), left.getTlvs(), right.berBuffer(), right.getTlvs(), new ArrayList<byte[]>(), result);
+    return result;
+  }
+
+  private static void diffLevel(final BerBuffer leftBuffer, final List<BerTlv> leftTlvs,
+      final BerBuffer rightBuffer, final List<BerTlv> rightTlvs, final List<byte[]> path,
+      final List<BerDiff> result) {
+    int i = 0;
+    int j = 0;
+    while (i < leftTlvs.size() && j < rightTlvs.size()) {
+      BerTlv left = leftTlvs.get(i);
+      BerTlv right = rightTlvs.get(j);
+      if (identifierEquals(leftBuffer, left, rightBuffer, right)) {
+        if (!contentEquals(leftBuffer, left, rightBuffer, right)) {
+          path.add(identifier(leftBuffer, left));
+          if (left.isConstructed()) {
+            diffLevel(leftBuffer, left.children(), rightBuffer, right.children(), path, result);
+          } else {
+            result.add(new BerDiff(BerDiff.Type.CHANGED, path
+                , content(leftBuffer, left), content(rightBuffer, right)));
+          }
+          path.remove(path.size() - 1);
+        }
+        i++;
+        j++;
+      } else if (indexOf(leftBuffer, leftTlvs, i + 1, rightBuffer, right) >= 0) {
+        addRemoved(leftBuffer, left, path, result);
+        i++;
+      } else if (indexOf(rightBuffer, rightTlvs, j + 1, leftBuffer, left) >= 0) {
+        addAdded(rightBuffer, right, path, result);
+        j++;
+      } else {
+        addRemoved(leftBuffer, left, path, result);
+        addAdded(rightBuffer, right, path, result);
+        i++;
+        j++;
+      }
+    }
+    for (; i < leftTlvs.size(); i++) {
+      addRemoved(leftBuffer, leftTlvs.get(i), path, result);
+    }
+    for (; j < rightTlvs.size(); j++) {
+      addAdded(rightBuffer, rightTlvs.get(j), path, result);
+    }
+  }
+
+  private static void addAdded(BerBuffer buffer, BerTlv tlv, List<byte[]> path, List<BerDiff> result) {
+    path.add(identifier(buffer, tlv));
+    result.add(new BerDiff(BerDiff.Type.ADDED, path, null, content(buffer, tlv)));
+    path.remove(path.size() - 1);
+  }
+
+  private static void addRemoved(BerBuffer buffer, BerTlv tlv, List<byte[]> path, List<BerDiff> result) {
+    path.add(identifier(buffer, tlv));
+    result.add(new BerDiff(BerDiff.Type.REMOVED, path, content(buffer, tlv), null));
+    path.remove(path.size() - 1);
+  }
+
+  private static byte[] content(BerBuffer buffer, BerTlv tlv) {
+    byte[] content = new byte[tlv.contentLength()];
+    buffer.getBytes(tlv.contentPosition(), content);
+    return content;
+  }
+
+  private static boolean contentEquals(BerBuffer leftBuffer, BerTlv left, BerBuffer rightBuffer, BerTlv right) {
+    return left.contentLength() == right.contentLength()
+        && BerBufferUtil.rangeEquals(leftBuffer, left.contentPosition()
+            , rightBuffer, right.contentPosition(), left.contentLength());
+  }
+
+  private static byte[] identifier(BerBuffer buffer, BerTlv tlv) {
+    byte[] identifier = new byte[tlv.identifierLength()];
+    buffer.getBytes(tlv.identifierPosition(), identifier);
+    return identifier;
+  }
+
+  private static boolean identifierEquals(BerBuffer leftBuffer, BerTlv left, BerBuffer rightBuffer, BerTlv right) {
+    final int length = left.identifierLength();
+    return length == right.identifierLength() && BerBufferUtil.rangeEquals(leftBuffer, left.identifierPosition()
+        , rightBuffer, right.identifierPosition(), length);
+  }
+
+  private static int indexOf(BerBuffer buffer, List<BerTlv> tlvs, int from, BerBuffer targetBuffer, BerTlv target) {
+    for (int i = from; i < tlvs.size(); i++) {
+      if (identifierEquals(buffer, tlvs.get(i), targetBuffer, target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private BerDiffer() {
+    // do nothing
+  }
+}
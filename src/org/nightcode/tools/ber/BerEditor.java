@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records replace, insert and delete edits of a BerFrame as a patch list.
+ *
+ * <p>The new encoding is produced by bulk copies of untouched TLVs from the source buffer,
+ * only length octets of constructed ancestors of edited TLVs are recomputed.
+ * If every edit replaces contents octets with ones of the same length,
+ * {@link #applyInPlace()} patches the source buffer directly.
+ */
+public final class BerEditor {
+
+  private static final class Insertion {
+    private final byte[] identifier;
+    private final byte[] content;
+
+    private Insertion(byte[] identifier, byte[] content) {
+      BerUtil.checkIdentifier(identifier);
+      this.identifier = identifier;
+      this.content = content;
+    }
+
+    private int length() {
+      return identifier.length + BerUtil.calculateNumberOfLengthOctets(content.length) + content.length;
+    }
+  }
+
+  private static final class Patch {
+    private @Nullable byte[] content;
+    private boolean deleted;
+    private final List<Insertion> insertions = new ArrayList<>();
+  }
+
+  private final BerFrame berFrame;
+  private final Map<BerTlv, Patch> patches = new IdentityHashMap<>();
+  private final Map<BerTlv, Integer> contentLengths = new IdentityHashMap<>();
+  private final List<Insertion> insertions = new ArrayList<>();
+
+  BerEditor(BerFrame berFrame) {
+    this.berFrame = berFrame;
+  }
+
+  /**
+   * Deletes the first BER tag with the supplied identifier.
+   *
+   * @param identifier the BER tag
+   * @exception IllegalArgumentException if the BER tag does not exists
+   */
+  public BerEditor delete(final int identifier) {
+    return delete(BerUtil.identifierToByteArray(identifier));
+  }
+
+  /**
+   * Deletes the first BER tag with the supplied identifier.
+   *
+   * @param identifier the BER tag
+   * @exception IllegalArgumentException if the BER tag does not exists
+   */
+  public BerEditor delete(final byte[] identifier) {
+    patch(identifier).deleted = true;
+    return this;
+  }
+
+  /**
+   * Appends a new BER tag to the first level of the frame.
+   *
+   * @param identifier the new BER tag
+   * @param content the contents octets
+   */
+  public BerEditor insert(final int identifier, final byte[] content) {
+    return insert(BerUtil.identifierToByteArray(identifier), content);
+  }
+
+  /**
+   * Appends a new BER tag to the first level of the frame.
+   *
+   * @param identifier the new BER tag
+   * @param content the contents octets
+   */
+  public BerEditor insert(final byte[] identifier, final byte[] content) {
+    insertions.add(new Insertion(identifier, content));
+    return this;
+  }
+
+  /**
+   * Appends a new BER tag as the last child of the first constructed BER tag
+   * with the supplied identifier.
+   *
+   * @param parent the constructed BER tag
+   * @param identifier the new BER tag
+   * @param content the contents octets
+   * @exception IllegalArgumentException if the parent BER tag does not exists or is not constructed
+   */
+  public BerEditor insert(final int parent, final int identifier, final byte[] content) {
+    return insert(BerUtil.identifierToByteArray(parent), BerUtil.identifierToByteArray(identifier), content);
+  }
+
+  /**
+   * Appends a new BER tag as the last child of the first constructed BER tag
+   * with the supplied identifier.
+   *
+   * @param parent the constructed BER tag
+   * @param identifier the new BER tag
+   * @param content the contents octets
+   * @exception IllegalArgumentException if the parent BER tag does not exists or is not constructed
+   */
+  public BerEditor insert(final byte[] parent, final byte[] identifier, final byte[] content) {
+    Insertion insertion = new Insertion(identifier, content);
+    List<BerTlv> path = new ArrayList<>();
+    BerTlv target = find(parent, berFrame.getTlvs(), path);
+    if (target == null || !target.isConstructed()) {
+      throw new IllegalArgumentException("constructed BER tag not found: " + BerUtil.byteArrayToHex(parent));
+    }
+    path.add(target);
+    markDirty(path);
+    patches.get(target).insertions.add(insertion);
+    return this;
+  }
+
+  /**
+   * Replaces the contents octets of the first BER tag with the supplied identifier.
+   *
+   * @param identifier the BER tag
+   * @param content the new contents octets
+   * @exception IllegalArgumentException if the BER tag does not exists
+   */
+  public BerEditor replace(final int identifier, final byte[] content) {
+    return replace(BerUtil.identifierToByteArray(identifier), content);
+  }
+
+  /**
+   * Replaces the contents octets of the first BER tag with the supplied identifier.
+   *
+   * @param identifier the BER tag
+   * @param content the new contents octets
+   * @exception IllegalArgumentException if the BER tag does not exists
+   */
+  public BerEditor replace(final byte[] identifier, final byte[] content) {
+    patch(identifier).content = content;
+    return this;
+  }
+
+  /**
+   * Writes the replaced contents octets straight into the source buffer of the frame
+   * if every recorded edit is a replacement of a primitive BER tag with the same length,
+   * so the parse index of the frame stays valid. Readers sharing the source buffer
+   * observe the new contents.
+   *
+   * @return {@code true} if the edits were applied, {@code false} if the frame must be re-encoded
+   */
+  public boolean applyInPlace() {
+    if (!insertions.isEmpty()) {
+      return false;
+    }
+    for (Map.Entry<BerTlv, Patch> entry : patches.entrySet()) {
+      Patch patch = entry.getValue();
+      if (patch.deleted || !patch.insertions.isEmpty() || (patch.content != null
+          && (entry.getKey().isConstructed() || patch.content.length != entry.getKey().contentLength()))) {
+        return false;
+      }
+    }
+    BerBuffer buffer = berFrame.berBuffer();
+    for (Map.Entry<BerTlv, Patch> entry : patches.entrySet()) {
+      if (entry.getValue().content != null) {
+        buffer.putBytes(entry.getKey().contentPosition(), entry.getValue().content);
+      }
+    }
+    patches.clear();
+    return true;
+  }
+
+  /**
+   * Returns the length of the edited encoding.
+   *
+   * @return the length of the edited encoding
+   */
+  public int length() {
+    contentLengths.clear();
+    return measure(berFrame.getTlvs(), insertions);
+  }
+
+  /**
+   * Returns the edited encoding.
+   *
+   * @return the edited encoding
+   */
+  public byte[] toByteArray() {
+    byte[] dst = new byte[length()];
+    ByteBuffer dstBuffer = ByteBuffer.wrap(dst);
+    write(berFrame.getTlvs(), insertions, BerBufferUtil.create(dstBuffer), dstBuffer, 0);
+    return dst;
+  }
+
+  /**
+   * Returns the edited encoding decoded as a new BerFrame.
+   *
+   * @return the edited frame
+   */
+  public BerFrame toBerFrame() {
+    return BerFrame.parseFrom(toByteArray());
+  }
+
+  /**
+   * Writes the edited encoding.
+   *
+   * @param dstBuffer the destination of encoded content
+   * @param offset in the supplied dstBuffer
+   * @return the number of written bytes
+   * @exception java.lang.IndexOutOfBoundsException if the encoding does not fit into dstBuffer
+   */
+  public int writeTo(final ByteBuffer dstBuffer, final int offset) {
+    final int length = length();
+    final BerBuffer dst = BerBufferUtil.create(dstBuffer);
+    dst.checkLimit(offset + length);
+    ByteBuffer dstView = dstBuffer.duplicate();
+    dstView.limit(dstView.capacity());
+    write(berFrame.getTlvs(), insertions, dst, dstView, offset);
+    return length;
+  }
+
+  private boolean contains(byte[] target, BerTlv tlv) {
+    return target.length == tlv.identifierLength()
+        && BerBufferUtil.rangeEquals(berFrame.berBuffer(), tlv.identifierPosition(), target);
+  }
+
+  private int copy(final int from, final int length, final ByteBuffer dstView, final int index) {
+    dstView.position(index);
+    berFrame.berBuffer().getBytes(from, dstView, length);
+    return index + length;
+  }
+
+  private @Nullable BerTlv find(byte[] identifier, List<BerTlv> tlvs, List<BerTlv> path) {
+    for (BerTlv tlv : tlvs) {
+      if (contains(identifier, tlv)) {
+        return tlv;
+      }
+      if (tlv.isConstructed()) {
+        path.add(tlv);
+        BerTlv result = find(identifier, tlv.children(), path);
+        if (result != null) {
+          return result;
+        }
+        path.remove(path.size() - 1);
+      }
+    }
+    return null;
+  }
+
+  private void markDirty(List<BerTlv> path) {
+    for (BerTlv tlv : path) {
+      if (!patches.containsKey(tlv)) {
+        patches.put(tlv, new Patch());
+      }
+    }
+  }
+
+  private int measure(List<BerTlv> tlvs, List<Insertion> tail) {
+    int length = 0;
+    for (BerTlv tlv : tlvs) {
+      Patch patch = patches.get(tlv);
+      if (patch == null) {
+        length += tlv.contentPosition() + tlv.contentLength() - tlv.identifierPosition();
+      } else if (!patch.deleted) {
+        int contentLength = patch.content != null
+            ? patch.content.length : measure(tlv.children(), patch.insertions);
+        contentLengths.put(tlv, contentLength);
+        length += tlv.identifierLength() + BerUtil.calculateNumberOfLengthOctets(contentLength) + contentLength;
+      }
+    }
+    for (Insertion insertion : tail) {
+      length += insertion.length();
+    }
+    return length;
+  }
+
+  private Patch patch(byte[] identifier) {
+    List<BerTlv> path = new ArrayList<>();
+    BerTlv target = find(identifier, berFrame.getTlvs(), path);
+    if (target == null) {
+      throw new IllegalArgumentException("BER tag not found: " + BerUtil.byteArrayToHex(identifier));
+    }
+    markDirty(path);
+    path.clear();
+    path.add(target);
+    markDirty(path);
+    return patches.get(target);
+  }
+
+  private int write(List<BerTlv> tlvs, List<Insertion> tail, BerBuffer dst, ByteBuffer dstView, int offset) {
+    int index = offset;
+    for (BerTlv tlv : tlvs) {
+      Patch patch = patches.get(tlv);
+      if (patch == null) {
+        index = copy(tlv.identifierPosition()
+            , tlv.contentPosition() + tlv.contentLength() - tlv.identifierPosition(), dstView, index);
+      } else if (!patch.deleted) {
+        final int contentLength = contentLengths.get(tlv);
+        index = copy(tlv.identifierPosition(), tlv.identifierLength(), dstView, index);
+        BerUtil.putLengthOctets(dst, index, contentLength);
+        index += BerUtil.calculateNumberOfLengthOctets(contentLength);
+        if (patch.content != null) {
+          dst.putBytes(index, patch.content);
+          index += patch.content.length;
+        } else {
+          index = write(tlv.children(), patch.insertions, dst, dstView, index);
+        }
+      }
+    }
+    for (Insertion insertion : tail) {
+      dst.putBytes(index, insertion.identifier);
+      index += insertion.identifier.length;
+      BerUtil.putLengthOctets(dst, index, insertion.content.length);
+      index += BerUtil.calculateNumberOfLengthOctets(insertion.content.length);
+      dst.putBytes(index, insertion.content);
+      index += insertion.content.length;
+    }
+    return index;
+  }
+}
@@ -22,25 +22,41 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
 /**
  * Main BER tags container.
+ *
+ * <p>The parse index of BerFrame is complete when the frame is created and reads never change
+ * the state of the underlying buffer. A frame may be cached and shared between threads without
+ * copying as long as the source bytes are not modified. The only write through a frame is
+ * {@link BerEditor#applyInPlace()}, which overwrites contents octets of primitive BER tags
+ * in the source buffer without changing their length, so the parse index stays valid;
+ * readers which share the frame must not run while the edit is applied.
+ *
+ * <p>A frame parsed with a release callback, e.g. from a pooled I/O buffer, is reference-counted:
+ * consumers {@link #retain()} the frame while they use it and {@link #release()} it afterwards.
+ * When the count drops to zero the source buffer is handed back to its owner and the frame,
+ * as well as the frames of its BER tags and the iterators which share the count, cannot be read any more.
+ * A {@link BerBuilder} which references the frame, e.g. through {@link BerBuilder#addRef(BerFrame)},
+ * reads the source buffer when it is encoded, so the frame must stay retained until then.
  */
 public final class BerFrame {
 
   private static final class BerTlvIterator implements Iterator<byte[]> {
 
-    private final BerBuffer buffer;
+    private final BerFrame source;
     private final Iterator<BerTlv> iterator;
 
     private BerTlv next;
     private boolean ready = false;
 
     private BerTlvIterator(BerFrame source) {
-      this.buffer = source.buffer;
-      this.iterator = source.tlvs.iterator();
+      this.source = source;
+      this.iterator = source.tlvs().iterator();
     }
 
     @Override public boolean hasNext() {
@@ -53,7 +69,7 @@ public final class BerFrame {
       }
       ready = false;
       byte[] identifier = new byte[next.identifierLength()];
-      buffer.getBytes(next.identifierPosition(), identifier);
+      source.berBuffer().getBytes(next.identifierPosition(), identifier);
       return identifier;
     }
 
@@ -90,7 +106,9 @@ public final class BerFrame {
 
   /**
    * Decode the BER data which contains in the supplied {@link ByteBuffer}
-   * with specified offset and length.
+   * with specified offset and length. Direct and read-only buffers are parsed in place,
+   * so a view of off-heap memory, e.g. {@code MemorySegment.asSlice(offset, length).asByteBuffer()},
+   * is decoded without copying wherever the view starts in the underlying memory.
    *
    * @param srcBuffer which contains the BER data
    * @param offset in the supplied srcBuffer
@@ -103,16 +121,174 @@ public final class BerFrame {
     return BerParser.parseFrom(berBuffer, offset, length);
   }
 
+  /**
+   * Decode the BER data which contains in the supplied {@link BerBuffer}
+   * with specified offset and length. The buffer is read in place, so memory types with
+   * a {@link BerBufferFactory}, e.g. ring buffers or shared memory regions, are decoded without copying.
+   *
+   * @param srcBuffer which contains the BER data
+   * @param offset in the supplied srcBuffer
+   * @param length of the BER data in bytes
+   * @exception java.lang.IndexOutOfBoundsException
+   * @exception DecoderException
+   */
+  public static BerFrame parseFrom(final BerBuffer srcBuffer, final int offset, final int length) {
+    return BerParser.parseFrom(srcBuffer, offset, length);
+  }
+
+  /**
+   * Decode the BER data which contains in the supplied {@link ByteBuffer}
+   * with specified offset and length without copying. The returned frame holds one reference,
+   * the supplied callback receives srcBuffer when the last reference is released.
+   * If decoding fails the callback is not called and the caller still owns srcBuffer.
+   *
+   * @param srcBuffer which contains the BER data
+   * @param offset in the supplied srcBuffer
+   * @param length of the BER data in bytes
+   * @param releaser the callback of the buffer owner, e.g. {@code pool::release}
+   * @exception java.lang.IndexOutOfBoundsException
+   * @exception DecoderException
+   */
+  public static BerFrame parseFrom(final ByteBuffer srcBuffer, final int offset, final int length,
+      final Consumer<? super ByteBuffer> releaser) {
+    BerFrame frame = parseFrom(srcBuffer, offset, length);
+    return new BerFrame(frame.buffer, frame.offset, frame.limit, frame.tlvs, new ReferenceCount(srcBuffer, releaser));
+  }
+
+  /**
+   * Decode the BER data which contains in the supplied bytes array into a trusted frame.
+   *
+   * @param src which contains the BER data
+   * @exception DecoderException
+   * @see #parseTrustedFrom(ByteBuffer, int, int)
+   */
+  public static BerFrame parseTrustedFrom(final byte[] src) {
+    return parseTrustedFrom(ByteBuffer.wrap(src), 0, src.length);
+  }
+
+  /**
+   * Decode the BER data which contains in the supplied {@link ByteBuffer}
+   * with specified offset and length into a trusted frame. Decoding checks bounds as usual
+   * and rejects any BER tag which does not fit into the specified range, after that the frame
+   * reads its BER tags through a read-only view, which skips bounds checks when the buffer
+   * is accessed with sun.misc.Unsafe. The frame must not be
+   * used after the memory of srcBuffer is released, and in-place edits of the frame
+   * fail with {@link java.nio.ReadOnlyBufferException}.
+   *
+   * @param srcBuffer which contains the BER data
+   * @param offset in the supplied srcBuffer
+   * @param length of the BER data in bytes
+   * @exception java.lang.IndexOutOfBoundsException
+   * @exception DecoderException
+   */
+  public static BerFrame parseTrustedFrom(final ByteBuffer srcBuffer, final int offset, final int length) {
+    BerBuffer berBuffer = BerBufferUtil.create(srcBuffer);
+    BerFrame frame = BerParser.parseFrom(berBuffer, offset, length);
+    return new BerFrame(BerBufferUtil.trustedView(berBuffer, srcBuffer), frame.offset, frame.limit, frame.tlvs);
+  }
+
+  /**
+   * Decode the BER data which is split between the supplied buffers, e.g. fragments of
+   * a message received by a scattering read. The remaining bytes of the buffers are decoded
+   * as one contiguous message without copying; positions and limits are not changed.
+   *
+   * @param srcBuffers which contain the BER data
+   * @exception DecoderException
+   */
+  public static BerFrame parseFrom(final ByteBuffer[] srcBuffers) {
+    BerBuffer berBuffer = new CompositeBerBuffer(srcBuffers);
+    return BerParser.parseFrom(berBuffer, 0, berBuffer.capacity());
+  }
+
+  /**
+   * Decode the DER data which contains in the supplied bytes array. Input which is not
+   * a valid DER encoding is rejected: non-minimal identifier or length octets,
+   * indefinite form and SET members which are not in ascending order of their encodings.
+   *
+   * @param src which contains the DER data
+   * @exception DecoderException
+   */
+  public static BerFrame parseDerFrom(final byte[] src) {
+    return parseDerFrom(ByteBuffer.wrap(src), 0, src.length, true);
+  }
+
+  /**
+   * Decode the DER data which contains in the supplied {@link ByteBuffer}
+   * with specified offset and length. Input which is not a valid DER encoding is rejected:
+   * non-minimal identifier or length octets, indefinite form and, if requested,
+   * SET members which are not in ascending order of their encodings.
+   *
+   * @param srcBuffer which contains the DER data
+   * @param offset in the supplied srcBuffer
+   * @param length of the DER data in bytes
+   * @param checkSetOrder whether the order of SET members should be checked
+   * @exception java.lang.IndexOutOfBoundsException
+   * @exception DecoderException
+   */
+  public static BerFrame parseDerFrom(final ByteBuffer srcBuffer, final int offset, final int length,
+      final boolean checkSetOrder) {
+    BerBuffer berBuffer = BerBufferUtil.create(srcBuffer);
+    return BerParser.parseFrom(berBuffer, offset, length
+        , checkSetOrder ? BerParser.MODE_DER_SET_ORDER : BerParser.MODE_DER);
+  }
+
+  /**
+   * Reference count shared by a frame and the frames of its BER tags.
+   */
+  private static final class ReferenceCount {
+    private final AtomicInteger count = new AtomicInteger(1);
+    private final ByteBuffer source;
+    private final Consumer<? super ByteBuffer> releaser;
+
+    private ReferenceCount(ByteBuffer source, Consumer<? super ByteBuffer> releaser) {
+      this.source = source;
+      this.releaser = releaser;
+    }
+
+    private void ensureAccessible() {
+      if (count.get() <= 0) {
+        throw new IllegalStateException("BerFrame has been released");
+      }
+    }
+  }
+
   private final BerBuffer buffer;
   private final int offset;
   private final int limit;
   private final List<BerTlv> tlvs;
+  private final @Nullable ReferenceCount referenceCount;
 
   BerFrame(final BerBuffer buffer, final int offset, final int limit, final List<BerTlv> tlvs) {
+    this(buffer, offset, limit, tlvs, null);
+  }
+
+  private BerFrame(BerBuffer buffer, int offset, int limit, List<BerTlv> tlvs,
+      @Nullable ReferenceCount referenceCount) {
     this.buffer = buffer;
     this.offset = offset;
     this.limit = limit;
     this.tlvs = tlvs;
+    this.referenceCount = referenceCount;
+  }
+
+  /**
+   * Compares this frame with the supplied one and returns added, removed and changed BER tags.
+   * Identical subtrees are skipped by comparing their encoded bytes in bulk.
+   *
+   * @param other the frame to compare with
+   * @return the list of differences, or empty list if the frames are equal
+   */
+  public List<BerDiff> diff(final BerFrame other) {
+    return BerDiffer.diff(this, other);
+  }
+
+  /**
+   * Returns a new BerEditor which records edits of this frame.
+   *
+   * @return new BerEditor instance
+   */
+  public BerEditor edit() {
+    return new BerEditor(this);
   }
 
   /**
@@ -123,7 +299,7 @@ public final class BerFrame {
    * @return the contents octets
    */
   public List<byte[]> getAllContents(final byte identifier) {
-    return getAllContents(BerUtil.identifierToByteArray(identifier), tlvs);
+    return getAllContents(BerUtil.identifierToByteArray(identifier), tlvs());
   }
 
   /**
@@ -134,7 +310,7 @@ public final class BerFrame {
    * @return the contents octets
    */
   public List<byte[]> getAllContents(final int identifier) {
-    return getAllContents(BerUtil.identifierToByteArray(identifier), tlvs);
+    return getAllContents(BerUtil.identifierToByteArray(identifier), tlvs());
   }
 
   /**
@@ -145,7 +321,7 @@ public final class BerFrame {
    * @return the contents octets
    */
   public List<byte[]> getAllContents(final long identifier) {
-    return getAllContents(BerUtil.identifierToByteArray(identifier), tlvs);
+    return getAllContents(BerUtil.identifierToByteArray(identifier), tlvs());
   }
 
   /**
@@ -159,7 +335,7 @@ public final class BerFrame {
     if (identifier.length == 0) {
       return new ArrayList<>();
     }
-    return getAllContents(identifier, tlvs);
+    return getAllContents(identifier, tlvs());
   }
 
   /**
@@ -171,7 +347,7 @@ public final class BerFrame {
    * @return the contents octets
    */
   public @Nullable byte[] getContent(final byte identifier) {
-    return getContent(new byte[] {identifier}, tlvs);
+    return getContent(new byte[] {identifier}, tlvs());
   }
 
   /**
@@ -183,7 +359,7 @@ public final class BerFrame {
    * @return the contents octets
    */
   public @Nullable byte[] getContent(final int identifier) {
-    return getContent(BerUtil.identifierToByteArray(identifier), tlvs);
+    return getContent(BerUtil.identifierToByteArray(identifier), tlvs());
   }
 
   /**
@@ -195,7 +371,7 @@ public final class BerFrame {
    * @return the contents octets
    */
   public @Nullable byte[] getContent(final long identifier) {
-    return getContent(BerUtil.identifierToByteArray(identifier), tlvs);
+    return getContent(BerUtil.identifierToByteArray(identifier), tlvs());
   }
 
   /**
@@ -210,7 +386,7 @@ public final class BerFrame {
     if (identifier.length == 0) {
       return null;
     }
-    return getContent(identifier, tlvs);
+    return getContent(identifier, tlvs());
   }
 
   /**
@@ -262,7 +438,7 @@ public final class BerFrame {
    * @return the ASCII coded contents octets
    */
   public @Nullable String getContentAsAsciiString(byte... identifier) {
-    byte[] content = getContent(identifier, tlvs);
+    byte[] content = getContent(identifier, tlvs());
     if (content == null) {
       return null;
     }
@@ -318,7 +494,7 @@ public final class BerFrame {
    * @return the hex coded contents octets
    */
   public @Nullable String getContentAsHexString(byte... identifier) {
-    byte[] content = getContent(identifier, tlvs);
+    byte[] content = getContent(identifier, tlvs());
     if (content == null) {
       return null;
     }
@@ -343,7 +519,7 @@ public final class BerFrame {
    * @return the {@code BerFrame}
    */
   public @Nullable BerFrame getTag(final byte identifier) {
-    return getTag(new byte[] {identifier}, tlvs);
+    return getTag(new byte[] {identifier}, tlvs());
   }
 
   /**
@@ -355,7 +531,7 @@ public final class BerFrame {
    * @return the {@code BerFrame}
    */
   public @Nullable BerFrame getTag(final int identifier) {
-    return getTag(BerUtil.identifierToByteArray(identifier), tlvs);
+    return getTag(BerUtil.identifierToByteArray(identifier), tlvs());
   }
 
   /**
@@ -367,7 +543,7 @@ public final class BerFrame {
    * @return the {@code BerFrame}
    */
   public @Nullable BerFrame getTag(final long identifier) {
-    return getTag(BerUtil.identifierToByteArray(identifier), tlvs);
+    return getTag(BerUtil.identifierToByteArray(identifier), tlvs());
   }
 
   /**
@@ -379,7 +555,7 @@ public final class BerFrame {
    * @return the {@code BerFrame}
    */
   public @Nullable BerFrame getTag(byte... identifier) {
-    return getTag(identifier, tlvs);
+    return getTag(identifier, tlvs());
   }
 
   /**
@@ -393,7 +569,7 @@ public final class BerFrame {
    * @return the byte array
    */
   public @Nullable byte[] getTagAsByteArray(final byte identifier) {
-    BerFrame tag = getTag(new byte[] {identifier}, tlvs);
+    BerFrame tag = getTag(new byte[] {identifier}, tlvs());
     if (tag == null) {
       return null;
     }
@@ -411,7 +587,7 @@ public final class BerFrame {
    * @return the byte array
    */
   public @Nullable byte[] getTagAsByteArray(final int identifier) {
-    BerFrame tag = getTag(BerUtil.identifierToByteArray(identifier), tlvs);
+    BerFrame tag = getTag(BerUtil.identifierToByteArray(identifier), tlvs());
     if (tag == null) {
       return null;
     }
@@ -429,7 +605,7 @@ public final class BerFrame {
    * @return the byte array
    */
   public @Nullable byte[] getTagAsByteArray(final long identifier) {
-    BerFrame tag = getTag(BerUtil.identifierToByteArray(identifier), tlvs);
+    BerFrame tag = getTag(BerUtil.identifierToByteArray(identifier), tlvs());
     if (tag == null) {
       return null;
     }
@@ -447,7 +623,7 @@ public final class BerFrame {
    * @return the byte array
    */
   public @Nullable byte[] getTagAsByteArray(byte... identifier) {
-    BerFrame tag = getTag(identifier, tlvs);
+    BerFrame tag = getTag(identifier, tlvs());
     if (tag == null) {
       return null;
     }
@@ -462,16 +638,69 @@ public final class BerFrame {
   public byte[] toByteArray() {
     int length = limit - offset;
     byte[] bytes = new byte[length];
-    buffer.getBytes(offset, bytes);
+    berBuffer().getBytes(offset, bytes);
     return bytes;
   }
 
+  /**
+   * Returns the number of references to the frame. Frames parsed without a release callback
+   * are not reference-counted and always have one reference.
+   *
+   * @return the number of references
+   */
+  public int refCount() {
+    return referenceCount != null ? referenceCount.count.get() : 1;
+  }
+
+  /**
+   * Decrements the number of references; when it drops to zero the source buffer is handed
+   * to the release callback. Does nothing for frames which are not reference-counted.
+   *
+   * @return {@code true} if the last reference has been released
+   * @exception IllegalStateException if the frame has been already released
+   */
+  public boolean release() {
+    if (referenceCount == null) {
+      return false;
+    }
+    final int count = referenceCount.count.decrementAndGet();
+    if (count < 0) {
+      referenceCount.count.incrementAndGet();
+      throw new IllegalStateException("BerFrame has been already released");
+    }
+    if (count == 0) {
+      referenceCount.releaser.accept(referenceCount.source);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Increments the number of references. Frames of BER tags returned by {@code getTag}
+   * share the count with this frame.
+   *
+   * @exception IllegalStateException if the frame has been released
+   */
+  public BerFrame retain() {
+    if (referenceCount != null) {
+      int count;
+      do {
+        count = referenceCount.count.get();
+        if (count <= 0) {
+          throw new IllegalStateException("BerFrame has been released");
+        }
+      } while (!referenceCount.count.compareAndSet(count, count + 1));
+    }
+    return this;
+  }
+
   BerBuffer berBuffer() {
+    ensureAccessible();
     return buffer;
   }
 
   List<BerTlv> getTlvs() {
-    return tlvs;
+    return tlvs();
   }
 
   int limit() {
@@ -482,16 +711,19 @@ public final class BerFrame {
     return offset;
   }
 
-  private boolean contains(byte[] target, final int position, final int length) {
-    if (target.length != length) {
-      return false;
-    }
-    for (int i = 0; i < length; i++) {
-      if (target[i] != buffer.getByte(position + i)) {
-        return false;
-      }
+  private void ensureAccessible() {
+    if (referenceCount != null) {
+      referenceCount.ensureAccessible();
     }
-    return true;
+  }
+
+  private List<BerTlv> tlvs() {
+    ensureAccessible();
+    return tlvs;
+  }
+
+  private boolean contains(byte[] target, final int position, final int length) {
+    return target.length == length && BerBufferUtil.rangeEquals(buffer, position, target);
   }
 
   private List<byte[]> getAllContents(byte[] identifier, List<BerTlv> tlvs) {
@@ -530,7 +762,7 @@ public final class BerFrame {
     for (BerTlv tlv : tlvs) {
       if (contains(identifier, tlv.identifierPosition(), tlv.identifierLength())) {
         result = new BerFrame(buffer, tlv.identifierPosition()
-            , tlv.contentPosition() + tlv.contentLength(), Collections.singletonList(tlv));
+            , tlv.contentPosition() + tlv.contentLength(), Collections.singletonList(tlv), referenceCount);
       } else if (tlv.isConstructed()) {
         result = getTag(identifier, tlv.children());
       }
@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parse index of a BER frame stored in a {@link ByteBuffer}, by default a direct one.
+ *
+ * <p>BerFrame keeps a heap object per BER tag, which adds up for multi-megabyte frames.
+ * BerFrameIndex decodes the frame into a flat table of fixed-size nodes in encoding order instead,
+ * so indexing a huge frame allocates no per-tag objects. The index refers to the data by positions
+ * only: it may be handed with the data to another thread or process, e.g. through shared memory,
+ * and opened there with {@link #wrap(BerBuffer, ByteBuffer)} without parsing.
+ *
+ * <p>Index layout (big-endian):
+ * <pre>
+ *   int   magic 'BERF'
+ *   int   node count (n)
+ *   int   offset of the frame
+ *   int   limit of the frame
+ *   per node [n], in encoding order:
+ *     long  identifier octets, first eight left-aligned
+ *     int   identifier position
+ *     int   identifier length, the highest bit is set for constructed BER tags
+ *     int   content position
+ *     int   content length
+ *     int   end, number of the node following the last descendant
+ *     int   parent node number or -1
+ * </pre>
+ */
+public final class BerFrameIndex {
+
+  static final int MAGIC = 0x42455246;
+
+  private static final int HEADER_LENGTH = 16;
+  private static final int NODE_LENGTH = 32;
+  private static final int INITIAL_NODES = 16;
+
+  private static final int KEY = 0;
+  private static final int IDENTIFIER_POSITION = 8;
+  private static final int IDENTIFIER_LENGTH = 12;
+  private static final int CONTENT_POSITION = 16;
+  private static final int CONTENT_LENGTH = 20;
+  private static final int END = 24;
+  private static final int PARENT = 28;
+
+  private static final int FLAG_CONSTRUCTED = 0x80000000;
+
+  /**
+   * Decode the BER data which contains in the supplied {@link ByteBuffer}
+   * with specified offset and length into an index held by a direct buffer.
+   *
+   * @param srcBuffer which contains the BER data
+   * @param offset in the supplied srcBuffer
+   * @param length of the BER data in bytes
+   * @exception java.lang.IndexOutOfBoundsException
+   * @exception DecoderException
+   */
+  public static BerFrameIndex parseFrom(final ByteBuffer srcBuffer, final int offset, final int length) {
+    return parseFrom(BerBufferUtil.create(srcBuffer), offset, length, ByteBuffer::allocateDirect);
+  }
+
+  /**
+   * Decode the BER data which contains in the supplied {@link BerBuffer}
+   * with specified offset and length into an index held by buffers of the supplied allocator.
+   * The allocator may be called again with a larger capacity when the index grows,
+   * the replaced buffer is not used any more.
+   *
+   * @param srcBuffer which contains the BER data
+   * @param offset in the supplied srcBuffer
+   * @param length of the BER data in bytes
+   * @param allocator the allocator of index buffers, e.g. {@code ByteBuffer::allocateDirect}
+   * @exception java.lang.IndexOutOfBoundsException
+   * @exception DecoderException
+   */
+  public static BerFrameIndex parseFrom(final BerBuffer srcBuffer, final int offset, final int length,
+      final IntFunction<ByteBuffer> allocator) {
+    if (offset < 0 || length < 0) {
+      throw new IndexOutOfBoundsException(String.format("negative offset or length (o=%d; l=%d)", offset, length));
+    }
+    final int limit = srcBuffer.checkLimit(offset + length);
+    Builder builder = new Builder(srcBuffer, allocator, HEADER_LENGTH + INITIAL_NODES * NODE_LENGTH);
+    builder.parse(offset, limit);
+    builder.nodes.putInt(0, MAGIC);
+    builder.nodes.putInt(4, builder.nodeCount);
+    builder.nodes.putInt(8, offset);
+    builder.nodes.putInt(12, limit);
+    return new BerFrameIndex(srcBuffer, builder.buffer, builder.nodes, builder.nodeCount, offset, limit);
+  }
+
+  /**
+   * Opens the index which has been built by {@code parseFrom} for the supplied data.
+   * Every node is checked to lie inside the frame, the data is not parsed.
+   *
+   * @param srcBuffer which contains the BER data
+   * @param indexBuffer which contains the index starting at index 0
+   * @return new BerFrameIndex instance
+   * @exception IllegalStateException if indexBuffer does not contain a valid index of srcBuffer
+   */
+  public static BerFrameIndex wrap(final BerBuffer srcBuffer, final ByteBuffer indexBuffer) {
+    final BerBuffer index = BerBufferUtil.create(indexBuffer);
+    if (index.capacity() < HEADER_LENGTH || index.getInt(0) != MAGIC) {
+      throw new IllegalStateException("not a BER frame index");
+    }
+    final int nodeCount = index.getInt(4);
+    final int offset = index.getInt(8);
+    final int limit = index.getInt(12);
+    if (nodeCount < 0 || HEADER_LENGTH + (long) nodeCount * NODE_LENGTH > index.capacity()
+        || offset < 0 || offset > limit || limit > srcBuffer.capacity()) {
+      throw new IllegalStateException(String.format("malformed BER frame index (n=%d; o=%d; l=%d)"
+          , nodeCount, offset, limit));
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      final int position = HEADER_LENGTH + node * NODE_LENGTH;
+      final int identifierPosition = index.getInt(position + IDENTIFIER_POSITION);
+      final int identifierLength = index.getInt(position + IDENTIFIER_LENGTH) & ~FLAG_CONSTRUCTED;
+      final int contentPosition = index.getInt(position + CONTENT_POSITION);
+      final int contentLength = index.getInt(position + CONTENT_LENGTH);
+      final int end = index.getInt(position + END);
+      final int parent = index.getInt(position + PARENT);
+      if (identifierPosition < offset || identifierLength < 1
+          || contentPosition < (long) identifierPosition + identifierLength || contentLength < 0
+          || (long) contentPosition + contentLength > limit
+          || end <= node || end > nodeCount || parent < -1 || parent >= node) {
+        throw new IllegalStateException(String.format("malformed BER frame index node (n=%d)", node));
+      }
+    }
+    return new BerFrameIndex(srcBuffer, indexBuffer, index, nodeCount, offset, limit);
+  }
+
+  /**
+   * Writes nodes while decoding the frame, the buffer grows by doubling.
+   */
+  private static final class Builder {
+    private final BerBuffer src;
+    private final IntFunction<ByteBuffer> allocator;
+    private final BerParser.Header header = new BerParser.Header();
+    private ByteBuffer buffer;
+    private BerBuffer nodes;
+    private int nodeCount;
+    private int[] stack = new int[16];
+    private int[] stackLimits = new int[16];
+    private int depth;
+
+    private Builder(BerBuffer src, IntFunction<ByteBuffer> allocator, int capacity) {
+      this.src = src;
+      this.allocator = allocator;
+      this.buffer = allocator.apply(capacity);
+      this.nodes = BerBufferUtil.create(buffer);
+    }
+
+    private void parse(final int offset, final int limit) {
+      int position = offset;
+      while (position < limit) {
+        while (depth > 0 && position == stackLimits[depth - 1]) {
+          close();
+        }
+        final int parentLimit = depth > 0 ? stackLimits[depth - 1] : limit;
+        try {
+          BerParser.decodeHeader(src, position, parentLimit, BerParser.MODE_BER, header);
+        } catch (RuntimeException ex) {
+          throw decoderException(ex, offset, limit);
+        }
+        position = putNode(position);
+      }
+      while (depth > 0) {
+        close();
+      }
+    }
+
+    private DecoderException decoderException(final Exception cause, final int offset, final int limit) {
+      List<BerTlv> root = partialTlvs();
+      int undecodedLength;
+      if (root.isEmpty()) {
+        undecodedLength = limit - offset;
+      } else {
+        BerTlv last = root.get(root.size() - 1);
+        undecodedLength = limit - last.contentPosition() - last.contentLength();
+      }
+      byte[] undecoded = new byte[undecodedLength];
+      src.getBytes(limit - undecodedLength, undecoded);
+      return new DecoderException(cause, new BerFrame(src, offset, limit, root), undecoded);
+    }
+
+    private List<BerTlv> partialTlvs() {
+      List<BerTlv> root = new ArrayList<>();
+      BerTlv[] tlvs = new BerTlv[nodeCount];
+      for (int node = 0; node < nodeCount; node++) {
+        final int position = position(node);
+        final int identifierLength = nodes.getInt(position + IDENTIFIER_LENGTH);
+        tlvs[node] = new BerTlv(nodes.getInt(position + IDENTIFIER_POSITION), identifierLength & ~FLAG_CONSTRUCTED
+            , (identifierLength & FLAG_CONSTRUCTED) != 0, nodes.getInt(position + CONTENT_POSITION)
+            , nodes.getInt(position + CONTENT_LENGTH));
+        final int parent = nodes.getInt(position + PARENT);
+        (parent < 0 ? root : tlvs[parent].children()).add(tlvs[node]);
+      }
+      return root;
+    }
+
+    private int putNode(final int identifierPosition) {
+      final int identifierLength = header.identifierLength;
+      final int contentPosition = header.contentPosition;
+      final int contentLength = header.contentLength;
+      long key = 0;
+      for (int i = 0; i < Math.min(8, identifierLength); i++) {
+        key |= (src.getByte(identifierPosition + i) & 0xFFL) << (56 - (i << 3));
+      }
+
+      final int node = nodeCount++;
+      final int position = reserve(node);
+      final boolean constructed = header.constructed;
+      nodes.putLong(position + KEY, key);
+      nodes.putInt(position + IDENTIFIER_POSITION, identifierPosition);
+      nodes.putInt(position + IDENTIFIER_LENGTH, constructed ? identifierLength | FLAG_CONSTRUCTED
+          : identifierLength);
+      nodes.putInt(position + CONTENT_POSITION, contentPosition);
+      nodes.putInt(position + CONTENT_LENGTH, contentLength);
+      nodes.putInt(position + END, node + 1);
+      nodes.putInt(position + PARENT, depth > 0 ? stack[depth - 1] : -1);
+      if (constructed && contentLength > 0) {
+        if (depth == stack.length) {
+          stack = Arrays.copyOf(stack, depth << 1);
+          stackLimits = Arrays.copyOf(stackLimits, depth << 1);
+        }
+        stack[depth] = node;
+        stackLimits[depth++] = contentPosition + contentLength;
+        return contentPosition;
+      }
+      return contentPosition + contentLength;
+    }
+
+    private void close() {
+      final int node = stack[--depth];
+      nodes.putInt(position(node) + END, nodeCount);
+    }
+
+    private int reserve(final int node) {
+      final long position = HEADER_LENGTH + (long) node * NODE_LENGTH;
+      if (position + NODE_LENGTH > nodes.capacity()) {
+        final long capacity = Math.max(position + NODE_LENGTH, (long) nodes.capacity() << 1);
+        if (capacity > Integer.MAX_VALUE) {
+          throw new IllegalStateException("BER frame index is too large: " + capacity);
+        }
+        ByteBuffer newBuffer = allocator.apply((int) capacity);
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        src.limit((int) position);
+        newBuffer.clear();
+        newBuffer.put(src);
+        newBuffer.clear();
+        buffer = newBuffer;
+        nodes = BerBufferUtil.create(newBuffer);
+      }
+      return (int) position;
+    }
+  }
+
+  private final BerBuffer data;
+  private final ByteBuffer indexBuffer;
+  private final BerBuffer index;
+  private final int nodeCount;
+  private final int offset;
+  private final int limit;
+
+  private BerFrameIndex(BerBuffer data, ByteBuffer indexBuffer, BerBuffer index, int nodeCount, int offset,
+      int limit) {
+    this.data = data;
+    this.indexBuffer = indexBuffer;
+    this.index = index;
+    this.nodeCount = nodeCount;
+    this.offset = offset;
+    this.limit = limit;
+  }
+
+  /**
+   * Returns all contents octets of the BER tag.
+   *
+   * @param identifier the BER tag value
+   * @return contents octets of every BER tag which is not nested in a BER tag with the same value
+   */
+  public List<byte[]> getAllContents(final int identifier) {
+    return getAllContents(BerUtil.identifierToByteArray(identifier));
+  }
+
+  /**
+   * Returns all contents octets of the BER tag.
+   *
+   * @param identifier the BER tag value
+   * @return contents octets of every BER tag which is not nested in a BER tag with the same value
+   */
+  public List<byte[]> getAllContents(final byte... identifier) {
+    final long key = key(identifier);
+    List<byte[]> result = new ArrayList<>();
+    int node = 0;
+    while (node < nodeCount) {
+      if (matches(node, identifier, key)) {
+        result.add(content(node));
+        node = index.getInt(position(node) + END);
+      } else {
+        node++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns contents octets of the first BER tag in encoding order.
+   *
+   * @param identifier the BER tag value
+   * @return contents octets or null if the BER tag does not exist
+   */
+  public @Nullable byte[] getContent(final int identifier) {
+    return getContent(BerUtil.identifierToByteArray(identifier));
+  }
+
+  /**
+   * Returns contents octets of the first BER tag in encoding order.
+   *
+   * @param identifier the BER tag value
+   * @return contents octets or null if the BER tag does not exist
+   */
+  public @Nullable byte[] getContent(final long identifier) {
+    return getContent(BerUtil.identifierToByteArray(identifier));
+  }
+
+  /**
+   * Returns contents octets of the first BER tag in encoding order.
+   *
+   * @param identifier the BER tag value
+   * @return contents octets or null if the BER tag does not exist
+   */
+  public @Nullable byte[] getContent(final byte... identifier) {
+    final int node = find(identifier);
+    return node >= 0 ? content(node) : null;
+  }
+
+  /**
+   * Decodes the first BER tag in encoding order as a BerFrame, e.g. to process one record
+   * of a huge batch with the BerFrame API. Only the BER tag is decoded.
+   *
+   * @param identifier the BER tag value
+   * @return the BerFrame of the BER tag or null if the BER tag does not exist
+   */
+  public @Nullable BerFrame getTag(final int identifier) {
+    return getTag(BerUtil.identifierToByteArray(identifier));
+  }
+
+  /**
+   * Decodes the first BER tag in encoding order as a BerFrame, e.g. to process one record
+   * of a huge batch with the BerFrame API. Only the BER tag is decoded.
+   *
+   * @param identifier the BER tag value
+   * @return the BerFrame of the BER tag or null if the BER tag does not exist
+   */
+  public @Nullable BerFrame getTag(final byte... identifier) {
+    final int node = find(identifier);
+    if (node < 0) {
+      return null;
+    }
+    final int position = position(node);
+    final int identifierPosition = index.getInt(position + IDENTIFIER_POSITION);
+    final int end = index.getInt(position + CONTENT_POSITION) + index.getInt(position + CONTENT_LENGTH);
+    return BerParser.parseFrom(data, identifierPosition, end - identifierPosition);
+  }
+
+  /**
+   * Returns a view of the index which may be passed to {@link #wrap(BerBuffer, ByteBuffer)}
+   * together with the data. The view is positioned at 0 and limited to the length of the index.
+   *
+   * @return the index buffer
+   */
+  public ByteBuffer indexBuffer() {
+    ByteBuffer view = indexBuffer.duplicate();
+    view.clear();
+    view.limit(HEADER_LENGTH + nodeCount * NODE_LENGTH);
+    return view;
+  }
+
+  /**
+   * Returns the limit of the frame in the data.
+   *
+   * @return the limit
+   */
+  public int limit() {
+    return limit;
+  }
+
+  /**
+   * Returns the number of BER tags in the frame, including nested ones.
+   *
+   * @return the number of BER tags
+   */
+  public int nodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * Returns the offset of the frame in the data.
+   *
+   * @return the offset
+   */
+  public int offset() {
+    return offset;
+  }
+
+  private static long key(final byte[] identifier) {
+    long key = 0;
+    for (int i = 0; i < identifier.length && i < 8; i++) {
+      key |= (identifier[i] & 0xFFL) << (56 - (i << 3));
+    }
+    return key;
+  }
+
+  private byte[] content(final int node) {
+    final int position = position(node);
+    byte[] content = new byte[index.getInt(position + CONTENT_LENGTH)];
+    data.getBytes(index.getInt(position + CONTENT_POSITION), content);
+    return content;
+  }
+
+  private int find(final byte[] identifier) {
+    final long key = key(identifier);
+    for (int node = 0; node < nodeCount; node++) {
+      if (matches(node, identifier, key)) {
+        return node;
+      }
+    }
+    return -1;
+  }
+
+  private boolean matches(final int node, final byte[] identifier, final long key) {
+    final int position = position(node);
+    return index.getLong(position + KEY) == key
+        && (index.getInt(position + IDENTIFIER_LENGTH) & ~FLAG_CONSTRUCTED) == identifier.length
+        && (identifier.length <= 8
+            || BerBufferUtil.rangeEquals(data, index.getInt(position + IDENTIFIER_POSITION), identifier));
+  }
+
+  private static int position(final int node) {
+    return HEADER_LENGTH + node * NODE_LENGTH;
+  }
+}
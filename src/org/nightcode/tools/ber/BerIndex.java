@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sidecar index of an archive of consecutive BER records (top level TLVs).
+ *
+ * <p>The index file keeps the offset of every record and, optionally, a secondary index
+ * on the contents octets of chosen BER tags. It is memory mapped on {@link #open(Path, Path)},
+ * so random record access and point lookups do not re-parse the archive.
+ *
+ * <p>Index file layout (big-endian):
+ * <pre>
+ *   int   magic 'BERI'
+ *   int   version
+ *   long  archive length
+ *   int   record count (n)
+ *   int   indexed tag count
+ *   long  record offsets [n + 1]
+ *   per indexed tag:
+ *     int   tag identifier
+ *     int   entry count (m)
+ *     long  entries [m] sorted, hash of contents octets (high 32 bits) | record number
+ * </pre>
+ */
+public final class BerIndex implements Closeable {
+
+  static final int MAGIC = 0x42455249;
+  static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 24;
+
+  private static final int MASK_INDEFINITE_FORM = 0x80;
+  private static final int MASK_DEFINITE_LONG_FORM = 0x80;
+
+  /**
+   * Scans the archive and writes its index.
+   *
+   * @param archive the archive of BER records
+   * @param index the index file to be written
+   * @param tags BER tags to build secondary index on
+   * @throws IOException if an I/O error occurs
+   * @exception DecoderException if a record can not be decoded
+   */
+  public static void build(Path archive, Path index, int... tags) throws IOException {
+    long[] offsets = new long[1024];
+    int recordCount = 0;
+    long[][] entries = new long[tags.length][];
+    int[] entryCounts = new int[tags.length];
+    byte[][] identifiers = new byte[tags.length][];
+    for (int i = 0; i < tags.length; i++) {
+      entries[i] = new long[1024];
+      identifiers[i] = BerUtil.identifierToByteArray(tags[i]);
+    }
+
+    long offset = 0;
+    byte[] record = new byte[1024];
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(archive), 1 << 16)) {
+      int headerLength;
+      while ((headerLength = readHeader(in, record)) > 0) {
+        final int contentLength = contentLength(record, headerLength);
+        if (recordCount + 1 == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length << 1);
+        }
+        offsets[recordCount] = offset;
+
+        if (tags.length > 0) {
+          if (record.length < headerLength + contentLength) {
+            record = Arrays.copyOf(record, headerLength + contentLength);
+          }
+          readFully(in, record, headerLength, contentLength);
+          BerFrame frame = BerFrame.parseFrom(ByteBuffer.wrap(record), 0, headerLength + contentLength);
+          for (int i = 0; i < tags.length; i++) {
+            byte[] value = frame.getContent(identifiers[i]);
+            if (value == null) {
+              continue;
+            }
+            if (entryCounts[i] == entries[i].length) {
+              entries[i] = Arrays.copyOf(entries[i], entries[i].length << 1);
+            }
+            entries[i][entryCounts[i]++] = entry(hash(value, 0, value.length), recordCount);
+          }
+        } else {
+          skipFully(in, contentLength);
+        }
+
+        offset += headerLength + contentLength;
+        recordCount++;
+      }
+    }
+    offsets[recordCount] = offset;
+
+    try (DataOutputStream out
+        = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(offset);
+      out.writeInt(recordCount);
+      out.writeInt(tags.length);
+      for (int i = 0; i <= recordCount; i++) {
+        out.writeLong(offsets[i]);
+      }
+      for (int i = 0; i < tags.length; i++) {
+        Arrays.sort(entries[i], 0, entryCounts[i]);
+        out.writeInt(tags[i]);
+        out.writeInt(entryCounts[i]);
+        for (int j = 0; j < entryCounts[i]; j++) {
+          out.writeLong(entries[i][j]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens the archive using the previously built index.
+   *
+   * @param archive the archive of BER records
+   * @param index the index file
+   * @return new BerIndex instance
+   * @throws IOException if an I/O error occurs or the index does not match the archive
+   */
+  public static BerIndex open(Path archive, Path index) throws IOException {
+    final MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+      throw new IOException("not a BER index: " + index);
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("unsupported BER index version: " + buffer.getInt(4));
+    }
+    FileChannel archiveChannel = FileChannel.open(archive, StandardOpenOption.READ);
+    if (archiveChannel.size() != buffer.getLong(8)) {
+      archiveChannel.close();
+      throw new IOException(String.format("archive length does not match index (a=%d; i=%d)"
+          , archiveChannel.size(), buffer.getLong(8)));
+    }
+    try {
+      return new BerIndex(archiveChannel, buffer);
+    } catch (IOException ex) {
+      archiveChannel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Builds the index from the command line.
+   * Usage: {@code BerIndex <archive> <index> [hex tag ...]}.
+   *
+   * @param args command line arguments
+   * @throws IOException if an I/O error occurs
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: BerIndex <archive> <index> [hex tag ...]");
+      System.exit(1);
+    }
+    int[] tags = new int[args.length - 2];
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = (int) Long.parseLong(args[i + 2], 16);
+    }
+    build(Paths.get(args[0]), Paths.get(args[1]), tags);
+  }
+
+  private static int hash(byte[] src, int offset, int length) {
+    int hash = 0x811C9DC5;
+    for (int i = offset; i < offset + length; i++) {
+      hash ^= src[i] & 0xFF;
+      hash *= 0x01000193;
+    }
+    return hash;
+  }
+
+  private static int contentLength(byte[] header, int headerLength) throws IOException {
+    final int lengthPosition = lengthPosition(header);
+    int firstLength = header[lengthPosition] & 0xFF;
+    if ((firstLength & MASK_DEFINITE_LONG_FORM) != MASK_DEFINITE_LONG_FORM) {
+      return firstLength;
+    }
+    if (headerLength - lengthPosition - 1 > 4) {
+      throw new IOException("Illegal ber packet structure.");
+    }
+    int contentLength = 0;
+    for (int i = lengthPosition + 1; i < headerLength; i++) {
+      contentLength = (contentLength << 8) + (header[i] & 0xFF);
+    }
+    if (contentLength < 0) {
+      throw new IOException(String.format("content length is too large (l=%d)", contentLength & 0xFFFFFFFFL));
+    }
+    return contentLength;
+  }
+
+  private static long entry(int hash, int record) {
+    return ((long) hash << 32) | (record & 0xFFFFFFFFL);
+  }
+
+  private static int lengthPosition(byte[] header) {
+    int index = 1;
+    if ((header[0] & 0x1F) == 0x1F) {
+      while ((header[index++] & 0x80) == 0x80) {
+        // skip subsequent identifier octets
+      }
+    }
+    return index;
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException("unexpected end of archive");
+    }
+    return b;
+  }
+
+  private static void readFully(InputStream in, byte[] dst, int offset, int length) throws IOException {
+    int n = 0;
+    while (n < length) {
+      int count = in.read(dst, offset + n, length - n);
+      if (count < 0) {
+        throw new EOFException("unexpected end of archive");
+      }
+      n += count;
+    }
+  }
+
+  /**
+   * Reads identifier and length octets of the next record into {@code dst}.
+   *
+   * @return the number of header octets, or 0 at the end of the archive
+   */
+  private static int readHeader(InputStream in, byte[] dst) throws IOException {
+    int first = in.read();
+    if (first < 0) {
+      return 0;
+    }
+    int index = 0;
+    dst[index++] = (byte) first;
+    if ((first & 0x1F) == 0x1F) {
+      int b;
+      do {
+        if (index == 8) {
+          throw new IOException("identifier is too long");
+        }
+        b = readByte(in);
+        dst[index++] = (byte) b;
+      } while ((b & 0x80) == 0x80);
+    }
+    int firstLength = readByte(in);
+    dst[index++] = (byte) firstLength;
+    if ((firstLength ^ MASK_INDEFINITE_FORM) == 0) {
+      throw new IOException("Indefinite form is not supported yet.");
+    }
+    if ((firstLength & MASK_DEFINITE_LONG_FORM) == MASK_DEFINITE_LONG_FORM) {
+      int numberOfSubsequentOctets = firstLength & 0x7F;
+      if (numberOfSubsequentOctets > 4) {
+        throw new IOException("Illegal ber packet structure.");
+      }
+      for (int i = 0; i < numberOfSubsequentOctets; i++) {
+        dst[index++] = (byte) readByte(in);
+      }
+    }
+    return index;
+  }
+
+  private static void skipFully(InputStream in, long length) throws IOException {
+    long n = 0;
+    while (n < length) {
+      long count = in.skip(length - n);
+      if (count <= 0) {
+        readByte(in);
+        count = 1;
+      }
+      n += count;
+    }
+  }
+
+  private final FileChannel archive;
+  private final ByteBuffer index;
+  private final int recordCount;
+  private final int[] tags;
+  private final int[] entriesPositions;
+  private final int[] entryCounts;
+
+  private BerIndex(FileChannel archive, ByteBuffer index) throws IOException {
+    this.archive = archive;
+    this.index = index;
+    recordCount = index.getInt(16);
+    int tagCount = index.getInt(20);
+    long position = HEADER_LENGTH + (recordCount + 1L) * 8;
+    if (recordCount < 0 || tagCount < 0 || position + tagCount * 8L > index.capacity()) {
+      throw new IOException(String.format("malformed BER index (n=%d; t=%d; c=%d)"
+          , recordCount, tagCount, index.capacity()));
+    }
+    tags = new int[tagCount];
+    entriesPositions = new int[tagCount];
+    entryCounts = new int[tagCount];
+    for (int i = 0; i < tagCount; i++) {
+      tags[i] = index.getInt((int) position);
+      entryCounts[i] = index.getInt((int) position + 4);
+      if (entryCounts[i] < 0 || position + 8 + entryCounts[i] * 8L > index.capacity()) {
+        throw new IOException(String.format("malformed BER index entries (t=%d; m=%d; c=%d)"
+            , i, entryCounts[i], index.capacity()));
+      }
+      entriesPositions[i] = (int) position + 8;
+      position += 8 + entryCounts[i] * 8L;
+    }
+  }
+
+  @Override public void close() throws IOException {
+    archive.close();
+  }
+
+  /**
+   * Returns numbers of the records which contain the BER tag with the supplied contents octets.
+   * The BER tag must be one of the tags the index was built with.
+   *
+   * @param identifier the BER tag
+   * @param value the contents octets
+   * @return the record numbers in ascending order
+   * @throws IOException if an I/O error occurs
+   * @exception IllegalArgumentException if the BER tag is not indexed
+   */
+  public int[] lookup(final int identifier, final byte[] value) throws IOException {
+    int tag = -1;
+    for (int i = 0; i < tags.length; i++) {
+      if (tags[i] == identifier) {
+        tag = i;
+        break;
+      }
+    }
+    if (tag < 0) {
+      throw new IllegalArgumentException("BER tag is not indexed: 0x" + Integer.toHexString(identifier));
+    }
+
+    final int hash = hash(value, 0, value.length);
+    final long key = entry(hash, 0);
+    final int base = entriesPositions[tag];
+    int low = 0;
+    int high = entryCounts[tag];
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (index.getLong(base + mid * 8) < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    int[] result = new int[4];
+    int count = 0;
+    for (int i = low; i < entryCounts[tag]; i++) {
+      long entry = index.getLong(base + i * 8);
+      if ((int) (entry >>> 32) != hash) {
+        break;
+      }
+      int record = (int) entry;
+      if (Arrays.equals(value, getRecord(record).getContent(identifier))) {
+        if (count == result.length) {
+          result = Arrays.copyOf(result, count << 1);
+        }
+        result[count++] = record;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Reads and decodes the record with the supplied number.
+   *
+   * @param record the record number
+   * @return the record
+   * @throws IOException if an I/O error occurs
+   * @exception DecoderException if the record can not be decoded
+   */
+  public BerFrame getRecord(final int record) throws IOException {
+    final long offset = recordOffset(record);
+    final ByteBuffer buffer = ByteBuffer.allocate(recordLength(record));
+    while (buffer.hasRemaining()) {
+      if (archive.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("unexpected end of archive");
+      }
+    }
+    return BerFrame.parseFrom(buffer.array());
+  }
+
+  /**
+   * @return the number of records in the archive
+   */
+  public int recordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Returns the length of the record with the supplied number.
+   *
+   * @param record the record number
+   * @return the length of the record in bytes
+   */
+  public int recordLength(final int record) {
+    checkRecord(record);
+    return (int) (offset(record + 1) - offset(record));
+  }
+
+  /**
+   * Returns the offset of the record with the supplied number in the archive.
+   *
+   * @param record the record number
+   * @return the offset of the record in bytes
+   */
+  public long recordOffset(final int record) {
+    checkRecord(record);
+    return offset(record);
+  }
+
+  private void checkRecord(final int record) {
+    if (record < 0 || record >= recordCount) {
+      throw new IndexOutOfBoundsException(String.format("record is beyond bound (r=%d; b=%d)"
+          , record, recordCount - 1));
+    }
+  }
+
+  private long offset(final int record) {
+    return index.getLong(HEADER_LENGTH + record * 8);
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import javax.annotation.Nullable;
+
+/**
+ * Growable destination of BER encoding with heap or direct backing.
+ *
+ * <p>The buffer doubles its capacity when an encoder needs more space, so the length
+ * of encoding does not have to be known in advance. Buffers may be reused with
+ * {@link #clear()} or taken from a small per-thread pool with {@link #acquire()}. Buffers created
+ * with a {@link BerBufferPool} draw their storage from that pool and return it on {@link #release()}.
+ * Instances are not thread-safe.
+ */
+public final class BerOutputBuffer {
+
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final int MAX_POOLED_CAPACITY = 1 << 20;
+  private static final int MAX_POOLED_BUFFERS = 4;
+
+  private static final ThreadLocal<ArrayDeque<BerOutputBuffer>> POOL = ThreadLocal.withInitial(ArrayDeque::new);
+
+  /**
+   * Returns an empty heap buffer from the pool of the current thread or a new one.
+   * The buffer should be returned with {@link #release()} by the same thread.
+   *
+   * @return an empty BerOutputBuffer
+   */
+  public static BerOutputBuffer acquire() {
+    BerOutputBuffer output = POOL.get().pollFirst();
+    if (output == null) {
+      return allocate(DEFAULT_CAPACITY);
+    }
+    output.released = false;
+    return output;
+  }
+
+  /**
+   * Creates new heap BerOutputBuffer instance.
+   *
+   * @param initialCapacity the initial capacity
+   * @return new BerOutputBuffer instance
+   */
+  public static BerOutputBuffer allocate(final int initialCapacity) {
+    return new BerOutputBuffer(null, false, initialCapacity);
+  }
+
+  /**
+   * Creates new heap BerOutputBuffer instance which storage is acquired from the supplied pool.
+   *
+   * @param pool the pool of buffers
+   * @param initialCapacity the initial capacity
+   * @return new BerOutputBuffer instance
+   */
+  public static BerOutputBuffer allocate(final BerBufferPool pool, final int initialCapacity) {
+    return new BerOutputBuffer(pool, false, initialCapacity);
+  }
+
+  /**
+   * Creates new direct BerOutputBuffer instance.
+   *
+   * @param initialCapacity the initial capacity
+   * @return new BerOutputBuffer instance
+   */
+  public static BerOutputBuffer allocateDirect(final int initialCapacity) {
+    return new BerOutputBuffer(null, true, initialCapacity);
+  }
+
+  /**
+   * Creates new direct BerOutputBuffer instance which storage is acquired from the supplied pool.
+   *
+   * @param pool the pool of buffers
+   * @param initialCapacity the initial capacity
+   * @return new BerOutputBuffer instance
+   */
+  public static BerOutputBuffer allocateDirect(final BerBufferPool pool, final int initialCapacity) {
+    return new BerOutputBuffer(pool, true, initialCapacity);
+  }
+
+  private final @Nullable BerBufferPool pool;
+  private final boolean direct;
+  private ByteBuffer byteBuffer;
+  private BerBuffer berBuffer;
+  private int length;
+  private boolean released;
+
+  private BerOutputBuffer(@Nullable BerBufferPool pool, boolean direct, int initialCapacity) {
+    if (initialCapacity < 1) {
+      throw new IllegalArgumentException("initial capacity must be positive: " + initialCapacity);
+    }
+    this.pool = pool;
+    this.direct = direct;
+    this.byteBuffer = allocateStorage(initialCapacity);
+    this.berBuffer = BerBufferUtil.create(byteBuffer);
+  }
+
+  /**
+   * Returns the current capacity.
+   *
+   * @return the current capacity
+   */
+  public int capacity() {
+    return byteBuffer.capacity();
+  }
+
+  /**
+   * Discards the encoded bytes, the capacity is kept.
+   */
+  public BerOutputBuffer clear() {
+    length = 0;
+    return this;
+  }
+
+  /**
+   * Returns the number of encoded bytes.
+   *
+   * @return the number of encoded bytes
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Clears the buffer and returns it to the pool of the current thread.
+   * The buffer must not be used after that.
+   *
+   * @exception IllegalStateException if the buffer has been already released
+   */
+  public void release() {
+    if (released) {
+      throw new IllegalStateException("BerOutputBuffer has been already released");
+    }
+    released = true;
+    clear();
+    if (pool != null) {
+      pool.release(byteBuffer);
+      return;
+    }
+    ArrayDeque<BerOutputBuffer> buffers = POOL.get();
+    if (!direct && capacity() <= MAX_POOLED_CAPACITY && buffers.size() < MAX_POOLED_BUFFERS) {
+      buffers.offerFirst(this);
+    }
+  }
+
+  /**
+   * Returns a copy of the encoded bytes.
+   *
+   * @return the encoded bytes
+   */
+  public byte[] toByteArray() {
+    byte[] dst = new byte[length];
+    berBuffer.getBytes(0, dst);
+    return dst;
+  }
+
+  /**
+   * Returns a view of the encoded bytes without copying. The view is valid
+   * until the buffer is written, cleared or released.
+   *
+   * @return the encoded bytes
+   */
+  public ByteBuffer toByteBuffer() {
+    ByteBuffer view = byteBuffer.duplicate();
+    view.limit(length);
+    view.position(0);
+    return view.slice();
+  }
+
+  BerBuffer berBuffer() {
+    return berBuffer;
+  }
+
+  ByteBuffer byteBuffer() {
+    return byteBuffer;
+  }
+
+  void length(final int length) {
+    this.length = length;
+  }
+
+  void ensureCapacity(final int minCapacity) {
+    if (minCapacity < 0) {
+      throw new IndexOutOfBoundsException("capacity overflow (c=" + minCapacity + ")");
+    }
+    final int capacity = byteBuffer.capacity();
+    if (minCapacity <= capacity) {
+      return;
+    }
+    final int newCapacity = (int) Math.min(Integer.MAX_VALUE, Math.max((long) capacity << 1, minCapacity));
+    ByteBuffer newBuffer = allocateStorage(newCapacity);
+    ByteBuffer src = byteBuffer.duplicate();
+    src.clear();
+    newBuffer.put(src);
+    newBuffer.clear();
+    if (pool != null) {
+      pool.release(byteBuffer);
+    }
+    byteBuffer = newBuffer;
+    berBuffer = BerBufferUtil.create(newBuffer);
+  }
+
+  private ByteBuffer allocateStorage(final int capacity) {
+    if (pool != null) {
+      ByteBuffer buffer = direct ? pool.acquireDirect(capacity) : pool.acquire(capacity);
+      buffer.clear();
+      return buffer;
+    }
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+}
@@ -29,11 +29,22 @@ final class BerParser {
   private static final int MASK_INDEFINITE_FORM = 0x80;
   private static final int MASK_DEFINITE_LONG_FORM = 0x80;
 
+  static final int MODE_BER = 0;
+  static final int MODE_DER = 1;
+  static final int MODE_DER_SET_ORDER = MODE_DER | 2;
+
   static BerFrame parseFrom(final BerBuffer berBuffer, final int offset, final int length) {
+    return parseFrom(berBuffer, offset, length, MODE_BER);
+  }
+
+  static BerFrame parseFrom(final BerBuffer berBuffer, final int offset, final int length, final int mode) {
+    if (offset < 0 || length < 0) {
+      throw new IndexOutOfBoundsException(String.format("negative offset or length (o=%d; l=%d)", offset, length));
+    }
     final int limit = berBuffer.checkLimit(offset + length);
     List<BerTlv> root = new ArrayList<>();
     try {
-      getLevel(berBuffer, root, offset, limit);
+      getLevel(berBuffer, root, offset, limit, mode, new Header());
     } catch (Exception ex) {
       int undecodedLength;
       if (root.isEmpty()) {
@@ -49,27 +60,43 @@ final class BerParser {
     return new BerFrame(berBuffer, offset, limit, root);
   }
 
-  private static void getLevel(final BerBuffer src, final List<BerTlv> level, final int position, final int limit) {
-    int index = position;
-    while (index < limit) {
-      index = getBerTlv(src, index, level, limit);
-    }
+  /**
+   * Identifier and length octets of a BER tag decoded by {@link #decodeHeader}.
+   */
+  static final class Header {
+    boolean constructed;
+    int identifierLength;
+    int contentPosition;
+    int contentLength;
   }
 
-  private static int getBerTlv(final BerBuffer src, final int identPosition, final List<BerTlv> level,
-      final int limit) {
+  /**
+   * Decodes the identifier and length octets of the BER tag which starts at the supplied position
+   * and checks that its contents octets end before the limit.
+   *
+   * @exception IllegalStateException if the octets are malformed or not minimal in DER mode
+   * @exception IndexOutOfBoundsException if the BER tag does not fit into the buffer or the limit
+   */
+  static void decodeHeader(final BerBuffer src, final int identPosition, final int limit, final int mode,
+      final Header header) {
     int index = identPosition;
     src.checkIndex(index);
     byte firstIdentifier = src.getByte(index++);
-    boolean constructed = (firstIdentifier & MASK_CONSTRUCTED) == MASK_CONSTRUCTED;
+    header.constructed = (firstIdentifier & MASK_CONSTRUCTED) == MASK_CONSTRUCTED;
     if ((firstIdentifier & 0x1F) == 0x1F) {
       byte b;
       do {
         src.checkIndex(index);
         b = src.getByte(index++);
       } while ((b & 0x80) == 0x80);
+      if ((mode & MODE_DER) != 0) {
+        final int firstSubsequent = src.getByte(identPosition + 1) & 0xFF;
+        if (firstSubsequent == 0x80 || (index - identPosition == 2 && firstSubsequent < 0x1F)) {
+          throw new IllegalStateException(String.format("non-minimal identifier octets (i=%d)", identPosition));
+        }
+      }
     }
-    final int identLength = index - identPosition;
+    header.identifierLength = index - identPosition;
     final int contentPos;
     int contentLength = 0;
     src.checkIndex(index);
@@ -88,20 +115,55 @@ final class BerParser {
         src.checkIndex(index);
         contentLength = (contentLength << 8) + (src.getByte(index++) & 0xFF);
       }
+      if ((mode & MODE_DER) != 0
+          && BerUtil.calculateNumberOfLengthOctets(contentLength) != numberOfSubsequentOctets + 1) {
+        throw new IllegalStateException(String.format("non-minimal length octets (i=%d)", identPosition));
+      }
     } else {
       contentPos = index;
       contentLength = firstLength;
     }
-    if (contentPos + contentLength > limit) {
-        throw new IndexOutOfBoundsException(String
-            .format("content bound is beyond content limit (b=%d; l=%d)", contentPos + contentLength, limit));
+    if (contentLength < 0 || contentLength > limit - contentPos) {
+        throw new IndexOutOfBoundsException(String.format("content bound is beyond content limit (b=%d; l=%d)"
+            , contentPos + (contentLength & 0xFFFFFFFFL), limit));
     }
-    BerTlv tlv = new BerTlv(identPosition, identLength, constructed, contentPos, contentLength);
+    header.contentPosition = contentPos;
+    header.contentLength = contentLength;
+  }
+
+  private static void getLevel(final BerBuffer src, final List<BerTlv> level, final int position, final int limit,
+      final int mode, final Header header) {
+    int index = position;
+    while (index < limit) {
+      index = getBerTlv(src, index, level, limit, mode, header);
+    }
+  }
+
+  private static int getBerTlv(final BerBuffer src, final int identPosition, final List<BerTlv> level,
+      final int limit, final int mode, final Header header) {
+    decodeHeader(src, identPosition, limit, mode, header);
+    BerTlv tlv = new BerTlv(identPosition, header.identifierLength, header.constructed, header.contentPosition
+        , header.contentLength);
     level.add(tlv);
-    if (constructed) {
-      getLevel(src, tlv.children(), contentPos, contentPos + contentLength);
+    if (tlv.isConstructed()) {
+      getLevel(src, tlv.children(), tlv.contentPosition(), tlv.contentPosition() + tlv.contentLength(), mode, header);
+      if ((mode & MODE_DER_SET_ORDER) == MODE_DER_SET_ORDER && tlv.identifierLength() == 1
+          && src.getByte(identPosition) == DerSorter.SET[0]) {
+        checkSetOrder(src, tlv.children(), identPosition);
+      }
+    }
+    return tlv.contentPosition() + tlv.contentLength();
+  }
+
+  private static void checkSetOrder(final BerBuffer src, final List<BerTlv> members, final int identPosition) {
+    for (int i = 1; i < members.size(); i++) {
+      BerTlv previous = members.get(i - 1);
+      BerTlv current = members.get(i);
+      if (DerSorter.compare(src, previous.identifierPosition(), previous.contentPosition() + previous.contentLength()
+          , current.identifierPosition(), current.contentPosition() + current.contentLength()) > 0) {
+        throw new IllegalStateException(String.format("SET members are not in DER order (i=%d)", identPosition));
+      }
     }
-    return index + contentLength;
   }
 
   private BerParser() {
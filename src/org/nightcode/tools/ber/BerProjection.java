@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Re-encodes a filtered subset of a BerFrame straight from its source buffer.
+ *
+ * <p>Subtrees which are not affected by the filter are bulk-copied with their original
+ * encoding, only length octets of constructed tags which lost some children are recomputed.
+ * Instances are immutable and may be shared between threads.
+ */
+public final class BerProjection {
+
+  /**
+   * Creates a projection which keeps only the supplied BER tags together with
+   * their constructed ancestors.
+   *
+   * @param identifiers the BER tags to keep
+   * @return new BerProjection instance
+   */
+  public static BerProjection include(final int... identifiers) {
+    return new BerProjection(true, toByteArrays(identifiers));
+  }
+
+  /**
+   * Creates a projection which keeps only the supplied BER tags together with
+   * their constructed ancestors.
+   *
+   * @param identifiers the BER tags to keep
+   * @return new BerProjection instance
+   */
+  public static BerProjection include(final byte[]... identifiers) {
+    return new BerProjection(true, identifiers.clone());
+  }
+
+  /**
+   * Creates a projection which removes the supplied BER tags with all their children.
+   *
+   * @param identifiers the BER tags to remove
+   * @return new BerProjection instance
+   */
+  public static BerProjection exclude(final int... identifiers) {
+    return new BerProjection(false, toByteArrays(identifiers));
+  }
+
+  /**
+   * Creates a projection which removes the supplied BER tags with all their children.
+   *
+   * @param identifiers the BER tags to remove
+   * @return new BerProjection instance
+   */
+  public static BerProjection exclude(final byte[]... identifiers) {
+    return new BerProjection(false, identifiers.clone());
+  }
+
+  private static byte[][] toByteArrays(final int... identifiers) {
+    byte[][] result = new byte[identifiers.length][];
+    for (int i = 0; i < identifiers.length; i++) {
+      result[i] = BerUtil.identifierToByteArray(identifiers[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Holds projected contents lengths of visited constructed tags in pre-order,
+   * so the encoding pass does not measure subtrees again.
+   */
+  private final class Projector {
+    private final BerBuffer src;
+    private int[] lengths = new int[16];
+    private int[] subtreeSizes = new int[16];
+    private int count;
+    private int cursor;
+
+    private Projector(BerBuffer src) {
+      this.src = src;
+    }
+
+    private int measure(List<BerTlv> tlvs) {
+      int length = 0;
+      for (BerTlv tlv : tlvs) {
+        length += measure(tlv);
+      }
+      return length;
+    }
+
+    private int measure(BerTlv tlv) {
+      if (matches(src, tlv)) {
+        return include ? encodedLength(tlv) : 0;
+      }
+      if (!tlv.isConstructed()) {
+        return include ? 0 : encodedLength(tlv);
+      }
+      final int entry = count++;
+      if (entry == lengths.length) {
+        lengths = Arrays.copyOf(lengths, entry << 1);
+        subtreeSizes = Arrays.copyOf(subtreeSizes, entry << 1);
+      }
+      final int contentLength = measure(tlv.children());
+      subtreeSizes[entry] = count - entry - 1;
+      if (include && contentLength == 0) {
+        lengths[entry] = -1;
+        return 0;
+      }
+      lengths[entry] = contentLength;
+      if (contentLength == tlv.contentLength()) {
+        return encodedLength(tlv);
+      }
+      return tlv.identifierLength() + BerUtil.calculateNumberOfLengthOctets(contentLength) + contentLength;
+    }
+
+    private int write(List<BerTlv> tlvs, BerBuffer dst, ByteBuffer dstView, int offset) {
+      int index = offset;
+      for (BerTlv tlv : tlvs) {
+        if (matches(src, tlv)) {
+          if (include) {
+            index = copy(tlv, dstView, index);
+          }
+        } else if (!tlv.isConstructed()) {
+          if (!include) {
+            index = copy(tlv, dstView, index);
+          }
+        } else {
+          final int entry = cursor++;
+          final int contentLength = lengths[entry];
+          if (contentLength == tlv.contentLength()) {
+            cursor += subtreeSizes[entry];
+            index = copy(tlv, dstView, index);
+          } else if (contentLength < 0) {
+            cursor += subtreeSizes[entry];
+          } else {
+            dstView.position(index);
+            src.getBytes(tlv.identifierPosition(), dstView, tlv.identifierLength());
+            index += tlv.identifierLength();
+            BerUtil.putLengthOctets(dst, index, contentLength);
+            index += BerUtil.calculateNumberOfLengthOctets(contentLength);
+            index = write(tlv.children(), dst, dstView, index);
+          }
+        }
+      }
+      return index;
+    }
+
+    private int copy(BerTlv tlv, ByteBuffer dstView, int index) {
+      final int length = encodedLength(tlv);
+      dstView.position(index);
+      src.getBytes(tlv.identifierPosition(), dstView, length);
+      return index + length;
+    }
+  }
+
+  private final boolean include;
+  private final byte[][] identifiers;
+
+  private BerProjection(boolean include, byte[][] identifiers) {
+    this.include = include;
+    this.identifiers = identifiers;
+  }
+
+  /**
+   * Returns the length of the projected encoding of the supplied frame.
+   *
+   * @param berFrame the source frame
+   * @return the length of the projected encoding
+   */
+  public int length(final BerFrame berFrame) {
+    return new Projector(berFrame.berBuffer()).measure(berFrame.getTlvs());
+  }
+
+  /**
+   * Returns the projected encoding of the supplied frame.
+   *
+   * @param berFrame the source frame
+   * @return the projected encoding
+   */
+  public byte[] toByteArray(final BerFrame berFrame) {
+    Projector projector = new Projector(berFrame.berBuffer());
+    final int length = projector.measure(berFrame.getTlvs());
+    byte[] dst = new byte[length];
+    ByteBuffer dstBuffer = ByteBuffer.wrap(dst);
+    projector.write(berFrame.getTlvs(), BerBufferUtil.create(dstBuffer), dstBuffer, 0);
+    return dst;
+  }
+
+  /**
+   * Writes the projected encoding of the supplied frame.
+   *
+   * @param berFrame the source frame
+   * @param dstBuffer the destination of encoded content
+   * @param offset in the supplied dstBuffer
+   * @return the number of written bytes
+   * @exception java.lang.IndexOutOfBoundsException if the encoding does not fit into dstBuffer
+   */
+  public int writeTo(final BerFrame berFrame, final ByteBuffer dstBuffer, final int offset) {
+    Projector projector = new Projector(berFrame.berBuffer());
+    final int length = projector.measure(berFrame.getTlvs());
+    final BerBuffer dst = BerBufferUtil.create(dstBuffer);
+    dst.checkLimit(offset + length);
+    ByteBuffer dstView = dstBuffer.duplicate();
+    dstView.limit(dstView.capacity());
+    projector.write(berFrame.getTlvs(), dst, dstView, offset);
+    return length;
+  }
+
+  private static int encodedLength(BerTlv tlv) {
+    return tlv.contentPosition() + tlv.contentLength() - tlv.identifierPosition();
+  }
+
+  private boolean matches(BerBuffer src, BerTlv tlv) {
+    for (byte[] identifier : identifiers) {
+      if (identifier.length == tlv.identifierLength()
+          && BerBufferUtil.rangeEquals(src, tlv.identifierPosition(), identifier)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
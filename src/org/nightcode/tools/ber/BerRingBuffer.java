@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.nightcode.tools.ber;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Single-producer single-consumer ring buffer of BER messages over a memory-mapped file,
+ * e.g. in {@code /dev/shm}, which passes messages between processes of the same host.
+ *
+ * <p>The producer encodes a message straight into the ring and publishes it by an ordered write
+ * of the tail position; the consumer decodes the message in place and frees its space by
+ * an ordered write of the head position. A message is stored contiguously after a four-byte
+ * length prefix and aligned to eight bytes; if it does not fit before the end of the ring,
+ * the rest of the ring is skipped. One process or thread may offer and one may poll,
+ * each through its own instance. {@link #close()} releases the mapping of the instance,
+ * the ring file itself is left for other processes; the mapping of an instance which
+ * is not closed is released when the instance is garbage collected.
+ */
+public final class BerRingBuffer implements Closeable {
+
+  private static final int MAGIC = 0x42455252;
+  private static final int MAGIC_OFFSET = 0;
+  private static final int CAPACITY_OFFSET = 4;
+  private static final int HEAD_OFFSET = 64;
+  private static final int TAIL_OFFSET = 128;
+  private static final int HEADER_LENGTH = 192;
+
+  private static final int LENGTH_PREFIX = 4;
+  private static final int ALIGNMENT = 8;
+  private static final int PADDING = -1;
+
+  /**
+   * Creates the ring file, or resets an existing one, and maps it.
+   *
+   * @param file the ring file
+   * @param capacity the number of bytes available for messages, a power of two
+   * @return new BerRingBuffer instance
+   * @throws IOException if an I/O error occurs
+   * @exception IllegalArgumentException if capacity is not a power of two of at least 64 bytes
+   */
+  public static BerRingBuffer create(final Path file, final int capacity) throws IOException {
+    if (capacity < 64 || Integer.bitCount(capacity) != 1 || capacity > Integer.MAX_VALUE - HEADER_LENGTH) {
+      throw new IllegalArgumentException("capacity must be a power of two of at least 64 bytes: " + capacity);
+    }
+    checkOrderedAccess();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ
+        , StandardOpenOption.WRITE)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + capacity);
+      mapped.putInt(MAGIC_OFFSET, 0);
+      mapped.putInt(CAPACITY_OFFSET, capacity);
+      BerBufferUtil.putLongOrdered(mapped, HEAD_OFFSET, 0L);
+      BerBufferUtil.putLongOrdered(mapped, TAIL_OFFSET, 0L);
+      mapped.putInt(MAGIC_OFFSET, MAGIC);
+      return new BerRingBuffer(mapped, capacity);
+    }
+  }
+
+  /**
+   * Maps the ring file created by {@link #create(Path, int)}.
+   *
+   * @param file the ring file
+   * @return new BerRingBuffer instance
+   * @throws IOException if an I/O error occurs
+   * @exception IllegalStateException if the file is not a ring file
+   */
+  public static BerRingBuffer open(final Path file) throws IOException {
+    checkOrderedAccess();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final long size = channel.size();
+      if (size < HEADER_LENGTH) {
+        throw new IllegalStateException("not a ring file: " + file);
+      }
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+      final int capacity = header.getInt(CAPACITY_OFFSET);
+      if (header.getInt(MAGIC_OFFSET) != MAGIC || capacity < 64 || Integer.bitCount(capacity) != 1
+          || size < (long) HEADER_LENGTH + capacity) {
+        throw new IllegalStateException("not a ring file: " + file);
+      }
+      return new BerRingBuffer(channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + capacity), capacity);
+    }
+  }
+
+  private static void checkOrderedAccess() {
+    if (!BerBufferUtil.hasOrderedAccess()) {
+      throw new UnsupportedOperationException("BerRingBuffer requires Java 9 or sun.misc.Unsafe");
+    }
+  }
+
+  private static int align(final int length) {
+    return (length + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  private final MappedByteBuffer mapped;
+  private final BerBuffer data;
+  private final int capacity;
+  private final int mask;
+  private boolean closed;
+
+  private BerRingBuffer(MappedByteBuffer mapped, int capacity) {
+    this.mapped = mapped;
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    ByteBuffer view = mapped.duplicate();
+    view.position(HEADER_LENGTH);
+    this.data = BerBufferUtil.create(view.slice());
+  }
+
+  /**
+   * Returns the number of bytes available for messages.
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Releases the mapping of the ring file. Frames passed to a consumer must not be used
+   * afterwards, and the instance must not be closed while another thread uses it.
+   */
+  @Override public void close() {
+    if (!closed) {
+      closed = true;
+      BerBufferUtil.unmap(mapped);
+    }
+  }
+
+  /**
+   * Encodes the BER data which contains in the supplied builder into the ring.
+   * Producer side only.
+   *
+   * @param builder the message
+   * @return {@code true} if the message has been published, {@code false} if the ring is full
+   * @exception IllegalArgumentException if the message is larger than the ring
+   * @exception IllegalStateException if the instance has been closed
+   */
+  public boolean offer(final BerBuilder builder) {
+    ensureOpen();
+    final int length = builder.length();
+    if (length > capacity - LENGTH_PREFIX) {
+      throw new IllegalArgumentException("message does not fit into the ring: " + length);
+    }
+    final int recordLength = align(LENGTH_PREFIX + length);
+    final long tail = BerBufferUtil.getLongVolatile(mapped, TAIL_OFFSET);
+    int index = (int) tail & mask;
+    final int padding = capacity - index < recordLength ? capacity - index : 0;
+    final long head = BerBufferUtil.getLongVolatile(mapped, HEAD_OFFSET);
+    if (tail + padding + recordLength - head > capacity) {
+      return false;
+    }
+    if (padding > 0) {
+      data.putInt(index, PADDING);
+      index = 0;
+    }
+    data.putInt(index, length);
+    builder.writeTo(data, index + LENGTH_PREFIX);
+    BerBufferUtil.putLongOrdered(mapped, TAIL_OFFSET, tail + padding + recordLength);
+    return true;
+  }
+
+  /**
+   * Decodes the next message in place and passes it to the supplied consumer. The frame reads
+   * the ring memory, so it must not be used after the consumer returns. The space of the message
+   * is freed even if decoding or the consumer fails. Consumer side only.
+   *
+   * @param consumer the consumer of the message
+   * @return {@code true} if a message has been consumed, {@code false} if the ring is empty
+   * @exception DecoderException
+   * @exception IllegalStateException if the instance has been closed
+   */
+  public boolean poll(final Consumer<? super BerFrame> consumer) {
+    ensureOpen();
+    long head = BerBufferUtil.getLongVolatile(mapped, HEAD_OFFSET);
+    if (head == BerBufferUtil.getLongVolatile(mapped, TAIL_OFFSET)) {
+      return false;
+    }
+    int index = (int) head & mask;
+    int length = data.getInt(index);
+    if (length == PADDING) {
+      head += capacity - index;
+      index = 0;
+      length = data.getInt(index);
+    }
+    if (length < 0 || length > capacity - index - LENGTH_PREFIX) {
+      throw new IllegalStateException(String.format("corrupted ring record (i=%d; l=%d)", index, length));
+    }
+    try {
+      consumer.accept(BerFrame.parseFrom(data, index + LENGTH_PREFIX, length));
+    } finally {
+      BerBufferUtil.putLongOrdered(mapped, HEAD_OFFSET, head + align(LENGTH_PREFIX + length));
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of bytes occupied by published and not consumed messages.
+   *
+   * @return the number of occupied bytes
+   * @exception IllegalStateException if the instance has been closed
+   */
+  public int size() {
+    ensureOpen();
+    final long head = BerBufferUtil.getLongVolatile(mapped, HEAD_OFFSET);
+    return (int) (BerBufferUtil.getLongVolatile(mapped, TAIL_OFFSET) - head);
+  }
+
+  private void ensureOpen() {
+    if (closed) {
+      throw new IllegalStateException("BerRingBuffer has been closed");
+    }
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoding template for messages which have the same BER tags layout and differ only in values.
+ *
+ * <p>The template is compiled from a sample message: every primitive BER tag of the sample
+ * becomes a value slot, numbered in the order of encoding. While every slot value has the length
+ * of the sample value, the encoding is a bulk copy of the sample followed by copies of slot values
+ * at known offsets. Otherwise length octets of the slot and of its constructed ancestors are
+ * recalculated. Instances are not thread-safe, {@link #duplicate()} shares the compiled layout
+ * with a new instance.
+ */
+public final class BerTemplate {
+
+  /**
+   * Compiles a template from the encoding of the supplied builder.
+   *
+   * @param sample the sample message
+   * @return new BerTemplate instance
+   */
+  public static BerTemplate compile(final BerBuilder sample) {
+    byte[] encoded = new byte[sample.length()];
+    sample.writeTo(encoded);
+    return compile(BerFrame.parseFrom(encoded));
+  }
+
+  /**
+   * Compiles a template from the supplied frame.
+   *
+   * @param sample the sample message
+   * @return new BerTemplate instance
+   */
+  public static BerTemplate compile(final BerFrame sample) {
+    final BerBuffer src = sample.berBuffer();
+    final int offset = sample.offset();
+    byte[] prototype = new byte[sample.limit() - offset];
+    src.getBytes(offset, prototype);
+    Layout layout = new Layout(prototype);
+    layout.add(sample.getTlvs(), -1, offset);
+    return new BerTemplate(layout.trim());
+  }
+
+  /**
+   * Flattened TLV tree of the sample message in encoding order.
+   */
+  private static final class Layout {
+    private final byte[] prototype;
+    private int[] identifierPositions = new int[16];
+    private int[] identifierLengths = new int[16];
+    private int[] contentPositions = new int[16];
+    private int[] contentLengths = new int[16];
+    private int[] parents = new int[16];
+    private int[] nodeSlots = new int[16];
+    private int[] slotNodes = new int[16];
+    private int nodeCount;
+    private int slotCount;
+
+    private Layout(byte[] prototype) {
+      this.prototype = prototype;
+    }
+
+    private void add(List<BerTlv> tlvs, int parent, int offset) {
+      for (BerTlv tlv : tlvs) {
+        final int node = nodeCount++;
+        if (node == parents.length) {
+          final int capacity = node << 1;
+          identifierPositions = Arrays.copyOf(identifierPositions, capacity);
+          identifierLengths = Arrays.copyOf(identifierLengths, capacity);
+          contentPositions = Arrays.copyOf(contentPositions, capacity);
+          contentLengths = Arrays.copyOf(contentLengths, capacity);
+          parents = Arrays.copyOf(parents, capacity);
+          nodeSlots = Arrays.copyOf(nodeSlots, capacity);
+        }
+        identifierPositions[node] = tlv.identifierPosition() - offset;
+        identifierLengths[node] = tlv.identifierLength();
+        contentPositions[node] = tlv.contentPosition() - offset;
+        contentLengths[node] = tlv.contentLength();
+        parents[node] = parent;
+        if (tlv.isConstructed()) {
+          nodeSlots[node] = -1;
+          add(tlv.children(), node, offset);
+        } else {
+          if (slotCount == slotNodes.length) {
+            slotNodes = Arrays.copyOf(slotNodes, slotCount << 1);
+          }
+          nodeSlots[node] = slotCount;
+          slotNodes[slotCount++] = node;
+        }
+      }
+    }
+
+    private Layout trim() {
+      slotNodes = Arrays.copyOf(slotNodes, slotCount);
+      return this;
+    }
+  }
+
+  private final Layout layout;
+  private final byte[][] values;
+  private final int[] lengths;
+  private int resized;
+
+  private BerTemplate(Layout layout) {
+    this.layout = layout;
+    this.values = new byte[layout.slotCount][];
+    this.lengths = new int[layout.nodeCount];
+  }
+
+  /**
+   * Returns a new template which shares the compiled layout of this template.
+   * Slot values are not copied.
+   *
+   * @return new BerTemplate instance
+   */
+  public BerTemplate duplicate() {
+    return new BerTemplate(layout);
+  }
+
+  /**
+   * Returns the length of encoding with the current slot values.
+   *
+   * @return the length of encoding
+   */
+  public int length() {
+    if (resized == 0) {
+      return layout.prototype.length;
+    }
+    return calculateLengths();
+  }
+
+  /**
+   * Restores the sample values of all slots.
+   */
+  public BerTemplate reset() {
+    Arrays.fill(values, null);
+    resized = 0;
+    return this;
+  }
+
+  /**
+   * Sets the value of the slot. The value is not copied until the template is encoded.
+   *
+   * @param slot the slot number
+   * @param value the contents octets
+   * @exception IndexOutOfBoundsException if there is no such slot
+   */
+  public BerTemplate set(final int slot, final byte[] value) {
+    final int sampleLength = layout.contentLengths[layout.slotNodes[slot]];
+    final byte[] previous = values[slot];
+    if (previous != null && previous.length != sampleLength) {
+      resized--;
+    }
+    if (value.length != sampleLength) {
+      resized++;
+    }
+    values[slot] = value;
+    return this;
+  }
+
+  /**
+   * Returns the number of the first slot which holds the supplied BER tag.
+   *
+   * @param identifier the BER tag value
+   * @return the slot number or -1 if there is no such slot
+   */
+  public int slot(final int identifier) {
+    return slot(BerUtil.identifierToByteArray(identifier));
+  }
+
+  /**
+   * Returns the number of the first slot which holds the supplied BER tag.
+   *
+   * @param identifier the BER tag value
+   * @return the slot number or -1 if there is no such slot
+   */
+  public int slot(final byte[] identifier) {
+    for (int slot = 0; slot < layout.slotCount; slot++) {
+      final int node = layout.slotNodes[slot];
+      if (layout.identifierLengths[node] == identifier.length) {
+        final int position = layout.identifierPositions[node];
+        int i = 0;
+        while (i < identifier.length && identifier[i] == layout.prototype[position + i]) {
+          i++;
+        }
+        if (i == identifier.length) {
+          return slot;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of value slots.
+   *
+   * @return the number of value slots
+   */
+  public int slotCount() {
+    return layout.slotCount;
+  }
+
+  /**
+   * Returns the encoding with the current slot values.
+   *
+   * @return the encoding
+   */
+  public byte[] toByteArray() {
+    byte[] dst = new byte[length()];
+    writeTo(BerBufferUtil.create(dst), 0);
+    return dst;
+  }
+
+  /**
+   * Encodes the message with the current slot values.
+   *
+   * @param dstBuffer the destination of encoded content
+   * @param offset in the supplied dstBuffer
+   * @return the number of written bytes
+   * @exception java.lang.IndexOutOfBoundsException if the encoding does not fit into dstBuffer
+   */
+  public int writeTo(final ByteBuffer dstBuffer, final int offset) {
+    return writeTo(BerBufferUtil.create(dstBuffer), offset);
+  }
+
+  private int calculateLengths() {
+    final Layout l = layout;
+    int length = 0;
+    for (int node = 0; node < l.nodeCount; node++) {
+      if (l.nodeSlots[node] < 0) {
+        lengths[node] = 0;
+      }
+    }
+    for (int node = l.nodeCount - 1; node >= 0; node--) {
+      final int slot = l.nodeSlots[node];
+      if (slot >= 0) {
+        final byte[] value = values[slot];
+        lengths[node] = value != null ? value.length : l.contentLengths[node];
+      }
+      final int encodedLength = l.identifierLengths[node]
+          + BerUtil.calculateNumberOfLengthOctets(lengths[node]) + lengths[node];
+      if (l.parents[node] < 0) {
+        length += encodedLength;
+      } else {
+        lengths[l.parents[node]] += encodedLength;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Encodes the message with the current slot values.
+   *
+   * @param dst the destination of encoded content, e.g. created by {@link BerBufferRegistry}
+   * @param offset in the supplied dst
+   * @return the number of written bytes
+   * @exception java.lang.IndexOutOfBoundsException if the encoding does not fit into dst
+   */
+  public int writeTo(final BerBuffer dst, final int offset) {
+    final Layout l = layout;
+    if (resized == 0) {
+      dst.checkLimit(offset + l.prototype.length);
+      dst.putBytes(offset, l.prototype);
+      for (int slot = 0; slot < l.slotCount; slot++) {
+        final byte[] value = values[slot];
+        if (value != null) {
+          dst.putBytes(offset + l.contentPositions[l.slotNodes[slot]], value);
+        }
+      }
+      return l.prototype.length;
+    }
+    final int length = calculateLengths();
+    dst.checkLimit(offset + length);
+    int index = offset;
+    for (int node = 0; node < l.nodeCount; node++) {
+      index += dst.putBytes(index, l.prototype, l.identifierPositions[node], l.identifierLengths[node]);
+      BerUtil.putLengthOctets(dst, index, lengths[node]);
+      index += BerUtil.calculateNumberOfLengthOctets(lengths[node]);
+      final int slot = l.nodeSlots[node];
+      if (slot >= 0) {
+        final byte[] value = values[slot];
+        if (value != null) {
+          index += dst.putBytes(index, value);
+        } else {
+          index += dst.putBytes(index, l.prototype, l.contentPositions[node], l.contentLengths[node]);
+        }
+      }
+    }
+    return length;
+  }
+}
@@ -135,6 +135,79 @@ final class BerUtil {
     return result;
   }
 
+  static int calculateNumberOfLengthOctets(final int contentLength) {
+    final int numberOfLengthOctets;
+    if (contentLength < 0x80) {
+      numberOfLengthOctets = 1;
+    } else if (contentLength < 0x100) {
+      numberOfLengthOctets = 2;
+    } else if (contentLength < 0x10000) {
+      numberOfLengthOctets = 3;
+    } else if (contentLength < 0x1000000) {
+      numberOfLengthOctets = 4;
+    } else {
+      numberOfLengthOctets = 5;
+    }
+    return numberOfLengthOctets;
+  }
+
+  static void putLengthOctets(final BerBuffer buffer, final int offset, final int contentLength) {
+    if (contentLength < 0x80) {
+      buffer.putByte(offset, (byte) (contentLength & 0x7F));
+    } else if (contentLength < 0x100) {
+      buffer.putByte(offset, (byte) 0x81);
+      buffer.putByte(offset + 1, (byte) contentLength);
+    } else if (contentLength < 0x10000) {
+      buffer.putByte(offset, (byte) 0x82);
+      buffer.putByte(offset + 1, (byte) (contentLength >>> 8));
+      buffer.putByte(offset + 2, (byte) (contentLength >>> 0));
+    } else if (contentLength < 0x1000000) {
+      buffer.putByte(offset, (byte) 0x83);
+      buffer.putByte(offset + 1, (byte) (contentLength >>> 16));
+      buffer.putByte(offset + 2, (byte) (contentLength >>>  8));
+      buffer.putByte(offset + 3, (byte) (contentLength >>>  0));
+    } else {
+      buffer.putByte(offset, (byte) 0x84);
+      buffer.putInt(offset + 1, contentLength);
+    }
+  }
+
+  static int putIdentifier(final BerBuffer buffer, final int offset, final int identifier) {
+    final int numberOfOctets = numberOfIdentifierOctets(identifier);
+    for (int n = 0; n < numberOfOctets; n++) {
+      buffer.putByte(offset + n, (byte) (identifier >>> ((numberOfOctets - 1 - n) << 3)));
+    }
+    return numberOfOctets;
+  }
+
+  static int putIdentifier(final byte[] dst, final int identifier) {
+    final int numberOfOctets = numberOfIdentifierOctets(identifier);
+    for (int n = 0; n < numberOfOctets; n++) {
+      dst[n] = (byte) (identifier >>> ((numberOfOctets - 1 - n) << 3));
+    }
+    return numberOfOctets;
+  }
+
+  static int numberOfIdentifierOctets(final int identifier) {
+    final int i = identifier ^ 0x80000000;
+    final int numberOfOctets;
+    if (i <= 0x800000FF) {
+      return 1;
+    } else if (i <= 0x8000FFFF) {
+      numberOfOctets = 2;
+    } else if (i <= 0x80FFFFFF) {
+      numberOfOctets = 3;
+    } else {
+      numberOfOctets = 4;
+    }
+    final byte leading = (byte) (identifier >>> ((numberOfOctets - 1) << 3));
+    if ((leading & 0x1F) != 0x1F) {
+      throw new IllegalStateException("Wrong identifier leading octet value: 0x"
+          + Integer.toHexString(leading & 0xFF));
+    }
+    return numberOfOctets;
+  }
+
   static void checkIdentifier(byte[] identifier) {
     if (((identifier[0] & 0x1F) != 0x1F) && identifier.length > 1) {
       throw new IllegalStateException("Wrong identifier leading octet value: 0x"
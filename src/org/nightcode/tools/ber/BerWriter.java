@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Single-pass BER encoder which writes directly into the target buffer.
+ *
+ * <p>Constructed tags are opened with {@code startConstructed} and closed with
+ * {@link #endConstructed()}. One length octet is reserved at start and backpatched at end;
+ * the contents octets are shifted only if the definite long form is required.
+ * The writer keeps no intermediate objects and may be reused with {@link #wrap(ByteBuffer, int)}.
+ */
+public final class BerWriter {
+
+  /**
+   * Creates new BerWriter instance which writes from the beginning of the supplied byte array.
+   *
+   * @param dst the destination of encoded content
+   * @return new BerWriter instance
+   */
+  public static BerWriter newInstance(final byte[] dst) {
+    return newInstance(ByteBuffer.wrap(dst), 0);
+  }
+
+  /**
+   * Creates new BerWriter instance which writes from the supplied offset of the buffer.
+   *
+   * @param dstBuffer the destination of encoded content
+   * @param offset in the supplied dstBuffer
+   * @return new BerWriter instance
+   */
+  public static BerWriter newInstance(final ByteBuffer dstBuffer, final int offset) {
+    return new BerWriter().wrap(dstBuffer, offset);
+  }
+
+  /**
+   * Creates new BerWriter instance which appends to the supplied output buffer
+   * and grows it as needed.
+   *
+   * @param output the destination of encoded content
+   * @return new BerWriter instance
+   */
+  public static BerWriter newInstance(final BerOutputBuffer output) {
+    return new BerWriter().wrap(output);
+  }
+
+  private @Nullable BerOutputBuffer output;
+  private ByteBuffer dstBuffer;
+  private BerBuffer buffer;
+  private int offset;
+  private int position;
+  private int[] lengthPositions = new int[8];
+  private boolean[] sets = new boolean[8];
+  private @Nullable byte[][] setIdentifiers;
+  private int depth;
+
+  private BerWriter() {
+    // do nothing
+  }
+
+  /**
+   * Encodes a primitive or pre-encoded constructed BER tag.
+   *
+   * @param identifier the BER tag value
+   * @param content the contents octets
+   */
+  public BerWriter add(final int identifier, final byte[] content) {
+    return add(identifier, content, 0, content.length);
+  }
+
+  /**
+   * Encodes a primitive or pre-encoded constructed BER tag.
+   *
+   * @param identifier the BER tag value
+   * @param content the contents octets
+   * @param contentOffset the offset of the contents octets in the supplied array
+   * @param contentLength the number of contents octets
+   */
+  public BerWriter add(final int identifier, final byte[] content, final int contentOffset,
+      final int contentLength) {
+    final int numberOfIdentifierOctets = BerUtil.numberOfIdentifierOctets(identifier);
+    final int numberOfLengthOctets = BerUtil.calculateNumberOfLengthOctets(contentLength);
+    ensureLimit(position + numberOfIdentifierOctets + numberOfLengthOctets + contentLength);
+    final int identifierPosition = position;
+    position += BerUtil.putIdentifier(buffer, position, identifier);
+    putContent(identifierPosition, content, contentOffset, contentLength, numberOfLengthOctets);
+    return sync();
+  }
+
+  /**
+   * Encodes a primitive or pre-encoded constructed BER tag.
+   *
+   * @param identifier the BER tag value
+   * @param content the contents octets
+   */
+  public BerWriter add(final long identifier, final byte[] content) {
+    return add(BerUtil.identifierToByteArray(identifier), content);
+  }
+
+  /**
+   * Encodes a primitive or pre-encoded constructed BER tag.
+   *
+   * @param identifier the BER tag value
+   * @param content the contents octets
+   */
+  public BerWriter add(final byte[] identifier, final byte[] content) {
+    BerUtil.checkIdentifier(identifier);
+    final int numberOfLengthOctets = BerUtil.calculateNumberOfLengthOctets(content.length);
+    ensureLimit(position + identifier.length + numberOfLengthOctets + content.length);
+    final int identifierPosition = position;
+    buffer.putBytes(position, identifier);
+    position += identifier.length;
+    putContent(identifierPosition, content, 0, content.length, numberOfLengthOctets);
+    return sync();
+  }
+
+  /**
+   * Switches the writer to DER mode: members of SET and SET OF values (identifier 0x31)
+   * and of the supplied constructed BER tags are sorted in ascending order of their encodings
+   * when the enclosing tag is closed. Length octets are always definite and minimal.
+   *
+   * @param setIdentifiers additional BER tags which contents must be sorted, e.g. implicitly tagged SET OF
+   */
+  public BerWriter der(final int... setIdentifiers) {
+    this.setIdentifiers = DerSorter.setIdentifiers(setIdentifiers);
+    return this;
+  }
+
+  /**
+   * Returns the nesting level of currently open constructed BER tags.
+   *
+   * @return the number of open constructed BER tags
+   */
+  public int depth() {
+    return depth;
+  }
+
+  /**
+   * Closes the constructed BER tag opened last and writes its length octets.
+   *
+   * @exception IllegalStateException if there is no open constructed BER tag
+   */
+  public BerWriter endConstructed() {
+    if (depth == 0) {
+      throw new IllegalStateException("no constructed BER tag to end");
+    }
+    final int lengthPosition = lengthPositions[--depth];
+    int contentPosition = lengthPosition + 1;
+    final int contentLength = position - contentPosition;
+    final int numberOfLengthOctets = BerUtil.calculateNumberOfLengthOctets(contentLength);
+    if (numberOfLengthOctets > 1) {
+      final int shift = numberOfLengthOctets - 1;
+      ensureLimit(position + shift);
+      ByteBuffer src = dstBuffer.duplicate();
+      src.limit(position);
+      src.position(contentPosition);
+      ByteBuffer dst = dstBuffer.duplicate();
+      dst.limit(dst.capacity());
+      dst.position(contentPosition + shift);
+      dst.put(src);
+      position += shift;
+      contentPosition += shift;
+    }
+    BerUtil.putLengthOctets(buffer, lengthPosition, contentLength);
+    if (sets[depth]) {
+      DerSorter.sort(buffer, contentPosition, contentLength);
+    }
+    return sync();
+  }
+
+  /**
+   * Returns the number of bytes written since the writer was wrapped or reset.
+   *
+   * @return the length of encoding
+   */
+  public int length() {
+    return position - offset;
+  }
+
+  /**
+   * Rewinds the writer to the initial offset.
+   */
+  public BerWriter reset() {
+    position = offset;
+    depth = 0;
+    return sync();
+  }
+
+  /**
+   * Opens a constructed BER tag; the following tags are written as its contents
+   * until {@link #endConstructed()} is called.
+   *
+   * @param identifier the BER tag value
+   */
+  public BerWriter startConstructed(final int identifier) {
+    ensureLimit(position + BerUtil.numberOfIdentifierOctets(identifier) + 1);
+    final int identifierPosition = position;
+    position += BerUtil.putIdentifier(buffer, position, identifier);
+    return pushLengthPosition(identifierPosition);
+  }
+
+  /**
+   * Opens a constructed BER tag; the following tags are written as its contents
+   * until {@link #endConstructed()} is called.
+   *
+   * @param identifier the BER tag value
+   */
+  public BerWriter startConstructed(final long identifier) {
+    return startConstructed(BerUtil.identifierToByteArray(identifier));
+  }
+
+  /**
+   * Opens a constructed BER tag; the following tags are written as its contents
+   * until {@link #endConstructed()} is called.
+   *
+   * @param identifier the BER tag value
+   */
+  public BerWriter startConstructed(final byte[] identifier) {
+    BerUtil.checkIdentifier(identifier);
+    ensureLimit(position + identifier.length + 1);
+    final int identifierPosition = position;
+    buffer.putBytes(position, identifier);
+    position += identifier.length;
+    return pushLengthPosition(identifierPosition);
+  }
+
+  /**
+   * Points the writer to the supplied buffer and offset and resets its state.
+   *
+   * @param dstBuffer the destination of encoded content
+   * @param offset in the supplied dstBuffer
+   */
+  public BerWriter wrap(final ByteBuffer dstBuffer, final int offset) {
+    output = null;
+    if (this.dstBuffer != dstBuffer) {
+      this.dstBuffer = dstBuffer;
+      this.buffer = BerBufferUtil.create(dstBuffer);
+    }
+    this.offset = offset;
+    return reset();
+  }
+
+  /**
+   * Points the writer to the end of the supplied output buffer and resets its state.
+   * The output buffer grows as needed and its length follows the writer.
+   *
+   * @param output the destination of encoded content
+   */
+  public BerWriter wrap(final BerOutputBuffer output) {
+    this.output = output;
+    this.dstBuffer = output.byteBuffer();
+    this.buffer = output.berBuffer();
+    this.offset = output.length();
+    return reset();
+  }
+
+  private void ensureLimit(final int limit) {
+    if (output == null) {
+      buffer.checkLimit(limit);
+    } else if (limit > buffer.capacity()) {
+      output.ensureCapacity(limit);
+      dstBuffer = output.byteBuffer();
+      buffer = output.berBuffer();
+    }
+  }
+
+  private BerWriter pushLengthPosition(final int identifierPosition) {
+    if (depth == lengthPositions.length) {
+      lengthPositions = Arrays.copyOf(lengthPositions, depth << 1);
+      sets = Arrays.copyOf(sets, depth << 1);
+    }
+    sets[depth] = isSet(identifierPosition);
+    lengthPositions[depth++] = position++;
+    return sync();
+  }
+
+  private BerWriter sync() {
+    if (output != null) {
+      output.length(position);
+    }
+    return this;
+  }
+
+  private boolean isSet(final int identifierPosition) {
+    return setIdentifiers != null
+        && DerSorter.isSet(setIdentifiers, buffer, identifierPosition, position - identifierPosition);
+  }
+
+  private void putContent(int identifierPosition, byte[] content, int contentOffset, int contentLength,
+      int numberOfLengthOctets) {
+    final boolean set = isSet(identifierPosition);
+    BerUtil.putLengthOctets(buffer, position, contentLength);
+    position += numberOfLengthOctets;
+    buffer.putBytes(position, content, contentOffset, contentLength);
+    if (set) {
+      DerSorter.sort(buffer, position, contentLength);
+    }
+    position += contentLength;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.meta.When;
+
+/**
+ * BerBuffer which checks every index and range before it delegates to the wrapped buffer.
+ * Backends which skip the checks of the hot paths, e.g. {@link UnsafeBerBuffer}, are handed out
+ * to public callers only through this wrapper.
+ */
+final class CheckedBerBuffer implements BerBuffer {
+
+  private final BerBuffer buffer;
+  private final int capacity;
+
+  CheckedBerBuffer(BerBuffer buffer) {
+    this.buffer = buffer;
+    this.capacity = buffer.capacity();
+  }
+
+  @Override public int capacity() {
+    return capacity;
+  }
+
+  @CheckReturnValue(when = When.NEVER)
+  @Override public int checkIndex(final int index) {
+    return checkIndex(index, 1);
+  }
+
+  @CheckReturnValue(when = When.NEVER)
+  @Override public int checkLimit(final int limit) {
+    if (limit < 0 || limit > capacity) {
+      throw new IndexOutOfBoundsException(String.format("limit is beyond capacity (l=%d; c=%d)"
+          , limit, capacity));
+    }
+    return limit;
+  }
+
+  @Override public ByteBuffer duplicateByteBuffer() {
+    return buffer.duplicateByteBuffer();
+  }
+
+  @Override public byte getByte(final int index) {
+    return buffer.getByte(checkIndex(index, 1));
+  }
+
+  @Override public int getBytes(final int index, final byte[] dst) {
+    return getBytes(index, dst, 0, dst.length);
+  }
+
+  @Override public int getBytes(final int index, final byte[] dst, final int offset, final int length) {
+    checkRange(dst.length, offset, length);
+    return buffer.getBytes(checkLimit(index), dst, offset, length);
+  }
+
+  @Override public int getBytes(final int index, final ByteBuffer dstBuffer, final int length) {
+    checkRange(Integer.MAX_VALUE, 0, length);
+    return buffer.getBytes(checkLimit(index), dstBuffer, length);
+  }
+
+  @Override public short getShort(final int index) {
+    return buffer.getShort(checkIndex(index, 2));
+  }
+
+  @Override public int getInt(final int index) {
+    return buffer.getInt(checkIndex(index, 4));
+  }
+
+  @Override public long getLong(final int index) {
+    return buffer.getLong(checkIndex(index, 8));
+  }
+
+  @Override public void putByte(final int index, final byte value) {
+    buffer.putByte(checkIndex(index, 1), value);
+  }
+
+  @Override public int putBytes(final int index, final byte[] src) {
+    return putBytes(index, src, 0, src.length);
+  }
+
+  @Override public int putBytes(final int index, final byte[] src, final int offset, final int length) {
+    checkRange(src.length, offset, length);
+    return buffer.putBytes(checkLimit(index), src, offset, length);
+  }
+
+  @Override public int putBytes(final int index, final ByteBuffer srcBuffer, final int length) {
+    checkRange(Integer.MAX_VALUE, 0, length);
+    return buffer.putBytes(checkLimit(index), srcBuffer, length);
+  }
+
+  @Override public void putShort(final int index, final short value) {
+    buffer.putShort(checkIndex(index, 2), value);
+  }
+
+  @Override public void putInt(final int index, final int value) {
+    buffer.putInt(checkIndex(index, 4), value);
+  }
+
+  @Override public void putLong(final int index, final long value) {
+    buffer.putLong(checkIndex(index, 8), value);
+  }
+
+  private int checkIndex(final int index, final int width) {
+    if (index < 0 || index > capacity - width) {
+      throw new IndexOutOfBoundsException(String.format("index is beyond bound (i=%d; b=%d)"
+          , index, capacity - width));
+    }
+    return index;
+  }
+
+  private static void checkRange(final int arrayLength, final int offset, final int length) {
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+      throw new IndexOutOfBoundsException(String.format("range is beyond array bound (o=%d; l=%d; b=%d)"
+          , offset, length, arrayLength));
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.meta.When;
+
+/**
+ * BerBuffer which presents the remaining bytes of several ByteBuffers as one contiguous
+ * index space. Every fragment is accessed through its own BerBuffer, so an access which
+ * does not cross a fragment boundary costs one lookup of the fragment. Positions and limits
+ * of the supplied buffers are never changed.
+ */
+final class CompositeBerBuffer implements BerBuffer {
+
+  private final BerBuffer[] segments;
+  private final int[] starts;
+  private final int capacity;
+
+  CompositeBerBuffer(ByteBuffer[] srcBuffers) {
+    int count = 0;
+    long total = 0;
+    for (ByteBuffer src : srcBuffers) {
+      if (src.hasRemaining()) {
+        count++;
+        total += src.remaining();
+      }
+    }
+    if (total > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("total length of buffers exceeds " + Integer.MAX_VALUE + ": " + total);
+    }
+    segments = new BerBuffer[count];
+    starts = new int[count];
+    int start = 0;
+    int segment = 0;
+    for (ByteBuffer src : srcBuffers) {
+      if (src.hasRemaining()) {
+        segments[segment] = BerBufferUtil.create(src.slice());
+        starts[segment++] = start;
+        start += src.remaining();
+      }
+    }
+    capacity = start;
+  }
+
+  @Override public int capacity() {
+    return capacity;
+  }
+
+  @CheckReturnValue(when = When.NEVER)
+  @Override public int checkIndex(final int index) {
+    if (index >= capacity) {
+      throw new IndexOutOfBoundsException(String.format("index is beyond bound (i=%d; b=%d)"
+          , index, capacity - 1));
+    }
+    return index;
+  }
+
+  @CheckReturnValue(when = When.NEVER)
+  @Override public int checkLimit(final int limit) {
+    if (limit > capacity) {
+      throw new IndexOutOfBoundsException(String.format("limit is beyond capacity (l=%d; c=%d)"
+          , limit, capacity));
+    }
+    return limit;
+  }
+
+  /**
+   * Returns a copy of all fragments since they cannot be presented as one ByteBuffer.
+   */
+  @Override public ByteBuffer duplicateByteBuffer() {
+    final ByteBuffer copy = ByteBuffer.allocate(capacity);
+    getBytes(0, copy, capacity);
+    copy.clear();
+    return copy;
+  }
+
+  @Override public byte getByte(final int index) {
+    final int segment = segmentIndex(index);
+    return segments[segment].getByte(index - starts[segment]);
+  }
+
+  @Override public int getBytes(final int index, final byte[] dst) {
+    return getBytes(index, dst, 0, dst.length);
+  }
+
+  @Override public int getBytes(final int index, final byte[] dst, final int offset,
+      final int length) {
+    final int count = Math.min(length, capacity - index);
+    if (count > 0) {
+      int segment = segmentIndex(index);
+      int position = index - starts[segment];
+      int done = 0;
+      while (done < count) {
+        done += segments[segment++].getBytes(position, dst, offset + done, count - done);
+        position = 0;
+      }
+    }
+    return count;
+  }
+
+  @Override public int getBytes(final int index, final ByteBuffer dstBuffer, final int length) {
+    int count = Math.min(dstBuffer.remaining(), capacity - index);
+    count = Math.min(count, length);
+    if (count > 0) {
+      int segment = segmentIndex(index);
+      int position = index - starts[segment];
+      int done = 0;
+      while (done < count) {
+        done += segments[segment++].getBytes(position, dstBuffer, count - done);
+        position = 0;
+      }
+    }
+    return count;
+  }
+
+  @Override public short getShort(final int index) {
+    final int segment = segmentIndex(index);
+    final int position = index - starts[segment];
+    if (position + 2 <= segments[segment].capacity()) {
+      return segments[segment].getShort(position);
+    }
+    return (short) getBigEndian(index, 2);
+  }
+
+  @Override public int getInt(final int index) {
+    final int segment = segmentIndex(index);
+    final int position = index - starts[segment];
+    if (position + 4 <= segments[segment].capacity()) {
+      return segments[segment].getInt(position);
+    }
+    return (int) getBigEndian(index, 4);
+  }
+
+  @Override public long getLong(final int index) {
+    final int segment = segmentIndex(index);
+    final int position = index - starts[segment];
+    if (position + 8 <= segments[segment].capacity()) {
+      return segments[segment].getLong(position);
+    }
+    return getBigEndian(index, 8);
+  }
+
+  @Override public void putByte(final int index, final byte value) {
+    final int segment = segmentIndex(index);
+    segments[segment].putByte(index - starts[segment], value);
+  }
+
+  @Override public int putBytes(final int index, final byte[] src) {
+    return putBytes(index, src, 0, src.length);
+  }
+
+  @Override public int putBytes(final int index, final byte[] src, final int offset,
+      final int length) {
+    final int count = Math.min(length, capacity - index);
+    if (count > 0) {
+      int segment = segmentIndex(index);
+      int position = index - starts[segment];
+      int done = 0;
+      while (done < count) {
+        done += segments[segment++].putBytes(position, src, offset + done, count - done);
+        position = 0;
+      }
+    }
+    return count;
+  }
+
+  @Override public int putBytes(final int index, final ByteBuffer srcBuffer, final int length) {
+    int count = Math.min(srcBuffer.remaining(), capacity - index);
+    count = Math.min(count, length);
+    if (count > 0) {
+      int segment = segmentIndex(index);
+      int position = index - starts[segment];
+      int done = 0;
+      while (done < count) {
+        done += segments[segment++].putBytes(position, srcBuffer, count - done);
+        position = 0;
+      }
+    }
+    return count;
+  }
+
+  @Override public void putShort(final int index, final short value) {
+    final int segment = segmentIndex(index);
+    final int position = index - starts[segment];
+    if (position + 2 <= segments[segment].capacity()) {
+      segments[segment].putShort(position, value);
+    } else {
+      putBigEndian(index, value, 2);
+    }
+  }
+
+  @Override public void putInt(final int index, final int value) {
+    final int segment = segmentIndex(index);
+    final int position = index - starts[segment];
+    if (position + 4 <= segments[segment].capacity()) {
+      segments[segment].putInt(position, value);
+    } else {
+      putBigEndian(index, value, 4);
+    }
+  }
+
+  @Override public void putLong(final int index, final long value) {
+    final int segment = segmentIndex(index);
+    final int position = index - starts[segment];
+    if (position + 8 <= segments[segment].capacity()) {
+      segments[segment].putLong(position, value);
+    } else {
+      putBigEndian(index, value, 8);
+    }
+  }
+
+  private long getBigEndian(final int index, final int width) {
+    long value = 0;
+    for (int i = 0; i < width; i++) {
+      value = (value << 8) | (getByte(index + i) & 0xFF);
+    }
+    return value;
+  }
+
+  private void putBigEndian(final int index, final long value, final int width) {
+    for (int i = 0; i < width; i++) {
+      putByte(index + i, (byte) (value >>> ((width - 1 - i) << 3)));
+    }
+  }
+
+  /**
+   * Copies bytes starting at the index into the destination buffer fragment by fragment.
+   */
+  void copyTo(final int index, final BerBuffer dst, final int dstIndex, final int length) {
+    checkLimit(index + length);
+    int segment = segmentIndex(index);
+    int position = index - starts[segment];
+    int done = 0;
+    while (done < length) {
+      final int count = Math.min(length - done, segments[segment].capacity() - position);
+      BerBufferUtil.copy(segments[segment++], position, dst, dstIndex + done, count);
+      done += count;
+      position = 0;
+    }
+  }
+
+  private int segmentIndex(final int index) {
+    if (index < 0 || index >= capacity) {
+      throw new IndexOutOfBoundsException(String.format("index is beyond bound (i=%d; b=%d)"
+          , index, capacity - 1));
+    }
+    final int segment = Arrays.binarySearch(starts, index);
+    return segment >= 0 ? segment : -segment - 2;
+  }
+}
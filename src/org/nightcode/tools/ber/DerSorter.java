@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.util.Arrays;
+
+/**
+ * Puts members of encoded SET and SET OF values into DER order (X.690, 11.6):
+ * ascending order of their encodings compared as octet strings.
+ */
+final class DerSorter {
+
+  static final byte[] SET = {0x31};
+
+  static byte[][] setIdentifiers(final int... identifiers) {
+    byte[][] result = new byte[identifiers.length + 1][];
+    result[0] = SET;
+    for (int i = 0; i < identifiers.length; i++) {
+      result[i + 1] = BerUtil.identifierToByteArray(identifiers[i]);
+    }
+    return result;
+  }
+
+  static boolean isSet(final byte[][] setIdentifiers, final byte[] identifier, final int length) {
+    for (byte[] setIdentifier : setIdentifiers) {
+      if (setIdentifier.length == length) {
+        int i = 0;
+        while (i < length && setIdentifier[i] == identifier[i]) {
+          i++;
+        }
+        if (i == length) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  static boolean isSet(final byte[][] setIdentifiers, final BerBuffer buffer, final int position, final int length) {
+    for (byte[] setIdentifier : setIdentifiers) {
+      if (setIdentifier.length == length && BerBufferUtil.rangeEquals(buffer, position, setIdentifier)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sorts the members of the SET whose contents octets occupy the supplied range of the buffer.
+   * Member offsets are sorted over the encoded bytes, the range is rewritten only if the order changes.
+   */
+  static void sort(final BerBuffer buffer, final int contentPosition, final int contentLength) {
+    int[] starts = new int[8];
+    int count = 0;
+    final int limit = contentPosition + contentLength;
+    int position = contentPosition;
+    while (position < limit) {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count << 1);
+      }
+      starts[count++] = position;
+      position = skipElement(buffer, position, limit);
+    }
+    if (count < 2) {
+      return;
+    }
+    final int[] ends = new int[count];
+    for (int i = 0; i < count - 1; i++) {
+      ends[i] = starts[i + 1];
+    }
+    ends[count - 1] = limit;
+
+    Integer[] order = new Integer[count];
+    boolean sorted = true;
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+      if (i > 0 && compare(buffer, starts[i - 1], ends[i - 1], starts[i], ends[i]) > 0) {
+        sorted = false;
+      }
+    }
+    if (sorted) {
+      return;
+    }
+    final int[] elementStarts = starts;
+    Arrays.sort(order, (left, right)
+        -> compare(buffer, elementStarts[left], ends[left], elementStarts[right], ends[right]));
+
+    byte[] copy = new byte[contentLength];
+    buffer.getBytes(contentPosition, copy);
+    int index = contentPosition;
+    for (Integer element : order) {
+      final int length = ends[element] - starts[element];
+      buffer.putBytes(index, copy, starts[element] - contentPosition, length);
+      index += length;
+    }
+  }
+
+  static int compare(BerBuffer buffer, int leftStart, int leftEnd, int rightStart, int rightEnd) {
+    final int length = Math.min(leftEnd - leftStart, rightEnd - rightStart);
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      final int result = Long.compareUnsigned(buffer.getLong(leftStart + i), buffer.getLong(rightStart + i));
+      if (result != 0) {
+        return result;
+      }
+    }
+    for (; i < length; i++) {
+      final int result = (buffer.getByte(leftStart + i) & 0xFF) - (buffer.getByte(rightStart + i) & 0xFF);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return (leftEnd - leftStart) - (rightEnd - rightStart);
+  }
+
+  private static int skipElement(final BerBuffer buffer, final int position, final int limit) {
+    int index = position;
+    if ((buffer.getByte(index++) & 0x1F) == 0x1F) {
+      while (index < limit && (buffer.getByte(index++) & 0x80) != 0) {
+        // skip subsequent identifier octets
+      }
+    }
+    if (index >= limit) {
+      throw new IllegalStateException("malformed SET member at position " + position);
+    }
+    int contentLength = buffer.getByte(index++) & 0xFF;
+    if (contentLength > 0x80 && contentLength <= 0x84) {
+      final int numberOfOctets = contentLength & 0x7F;
+      contentLength = 0;
+      for (int i = 0; i < numberOfOctets && index < limit; i++) {
+        contentLength = (contentLength << 8) | (buffer.getByte(index++) & 0xFF);
+      }
+    } else if (contentLength >= 0x80) {
+      throw new IllegalStateException("unsupported length octets of SET member at position " + position);
+    }
+    final int end = index + contentLength;
+    if (contentLength < 0 || end > limit || end < index) {
+      throw new IllegalStateException("malformed SET member at position " + position);
+    }
+    return end;
+  }
+
+  private DerSorter() {
+    throw new AssertionError("Utility class");
+  }
+}
@@ -17,17 +17,22 @@
 package org.nightcode.tools.ber;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.meta.When;
 
+/**
+ * BerBuffer over a {@link ByteBuffer}. Every access is absolute, the position and
+ * the limit of the wrapped buffer are never changed, so concurrent reads are safe.
+ */
 final class DirectBerBuffer implements BerBuffer {
 
   private final ByteBuffer buffer;
   private final int capacity;
 
   DirectBerBuffer(ByteBuffer src) {
-    buffer = src;
+    buffer = src.duplicate().order(ByteOrder.BIG_ENDIAN);
     capacity = src.capacity();
   }
 
@@ -68,20 +73,34 @@ final class DirectBerBuffer implements BerBuffer {
   @Override public int getBytes(final int index, final byte[] dst, final int offset,
       final int length) {
     final int count = Math.min(length, capacity - index);
-    buffer.position(index);
-    buffer.get(dst, offset, count);
+    final ByteBuffer src = buffer.duplicate();
+    src.position(index);
+    src.get(dst, offset, count);
     return count;
   }
 
   @Override public int getBytes(final int index, final ByteBuffer dstBuffer, final int length) {
     int count = Math.min(dstBuffer.remaining(), capacity - index);
     count = Math.min(count, length);
-    buffer.position(index);
-    buffer.limit(index + count);
-    dstBuffer.put(buffer.slice());
+    final ByteBuffer src = buffer.duplicate();
+    src.limit(index + count);
+    src.position(index);
+    dstBuffer.put(src);
     return count;
   }
 
+  @Override public short getShort(final int index) {
+    return buffer.getShort(index);
+  }
+
+  @Override public int getInt(final int index) {
+    return buffer.getInt(index);
+  }
+
+  @Override public long getLong(final int index) {
+    return buffer.getLong(index);
+  }
+
   @Override public void putByte(final int index, final byte value) {
     buffer.put(index, value);
   }
@@ -93,23 +112,33 @@ final class DirectBerBuffer implements BerBuffer {
   @Override public int putBytes(final int index, final byte[] src, final int offset,
       final int length) {
     final int count = Math.min(length, capacity - index);
-    buffer.position(index);
-    buffer.put(src, offset, count);
+    final ByteBuffer dst = buffer.duplicate();
+    dst.position(index);
+    dst.put(src, offset, count);
     return count;
   }
 
   @Override public int putBytes(final int index, final ByteBuffer srcBuffer, final int length) {
     int count = Math.min(srcBuffer.remaining(), capacity - index);
     count = Math.min(count, length);
-    ByteBuffer src = srcBuffer.duplicate();
-    src.limit(length);
-    buffer.position(index);
-    buffer.put(src.slice());
+    final ByteBuffer src = srcBuffer.duplicate();
+    src.limit(src.position() + count);
+    final ByteBuffer dst = buffer.duplicate();
+    dst.position(index);
+    dst.put(src);
     srcBuffer.position(srcBuffer.position() + count);
     return count;
   }
 
+  @Override public void putShort(final int index, final short value) {
+    buffer.putShort(index, value);
+  }
+
   @Override public void putInt(final int index, final int value) {
     buffer.putInt(index, value);
   }
+
+  @Override public void putLong(final int index, final long value) {
+    buffer.putLong(index, value);
+  }
 }
@@ -77,7 +77,7 @@ final class HeapBerBuffer implements BerBuffer {
   @Override public int getBytes(final int index, final byte[] dst, final int offset,
       final int length) {
     final int count = Math.min(length, capacity - index);
-    System.arraycopy(array, index, dst, offset, length);
+    System.arraycopy(array, index, dst, offset, count);
     return count;
   }
 
@@ -88,6 +88,21 @@ final class HeapBerBuffer implements BerBuffer {
     return count;
   }
 
+  @Override public short getShort(final int index) {
+    return (short) ((array[index] << 8) | (array[index + 1] & 0xFF));
+  }
+
+  @Override public int getInt(final int index) {
+    return (array[index] << 24)
+        | ((array[index + 1] & 0xFF) << 16)
+        | ((array[index + 2] & 0xFF) << 8)
+        | (array[index + 3] & 0xFF);
+  }
+
+  @Override public long getLong(final int index) {
+    return ((long) getInt(index) << 32) | (getInt(index + 4) & 0xFFFFFFFFL);
+  }
+
   @Override public void putByte(final int index, final byte value) {
     array[index] = value;
   }
@@ -110,8 +125,18 @@ final class HeapBerBuffer implements BerBuffer {
     return count;
   }
 
+  @Override public void putShort(final int index, final short value) {
+    array[index] = (byte) (value >>> 8);
+    array[index + 1] = (byte) value;
+  }
+
   @Override public void putInt(final int index, final int value) {
     byte[] src = intTobByteArray(value);
     System.arraycopy(src, 0, array, index, 4);
   }
+
+  @Override public void putLong(final int index, final long value) {
+    putInt(index, (int) (value >>> 32));
+    putInt(index + 4, (int) value);
+  }
 }
@@ -19,6 +19,7 @@ package org.nightcode.tools.ber;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
 import java.security.AccessController;
 import java.security.PrivilegedExceptionAction;
 
@@ -46,6 +47,109 @@ final class UnsafeBerBuffer implements BerBuffer {
 
   private static final long BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
 
+  /**
+   * Read-only view without bounds checks of bulk and multi-byte reads. The view is created only
+   * for frames which have been parsed with bounds checks, so that every read is inside the parsed range.
+   */
+  static final class Trusted implements BerBuffer {
+    private final UnsafeBerBuffer source;
+    private final byte[] array;
+    private final long addressOffset;
+    private final int capacity;
+
+    private Trusted(UnsafeBerBuffer source) {
+      this.source = source;
+      this.array = source.array;
+      this.addressOffset = source.addressOffset;
+      this.capacity = source.capacity;
+    }
+
+    @Override public int capacity() {
+      return capacity;
+    }
+
+    @Override public int checkIndex(final int index) {
+      return source.checkIndex(index);
+    }
+
+    @Override public int checkLimit(final int limit) {
+      return source.checkLimit(limit);
+    }
+
+    @Override public ByteBuffer duplicateByteBuffer() {
+      return source.duplicateByteBuffer();
+    }
+
+    @Override public byte getByte(final int index) {
+      return UNSAFE.getByte(array, addressOffset + index);
+    }
+
+    @Override public int getBytes(final int index, final byte[] dst) {
+      UNSAFE.copyMemory(array, addressOffset + index, dst, BYTE_ARRAY_OFFSET, dst.length);
+      return dst.length;
+    }
+
+    @Override public int getBytes(final int index, final byte[] dst, final int offset, final int length) {
+      UNSAFE.copyMemory(array, addressOffset + index, dst, BYTE_ARRAY_OFFSET + offset, length);
+      return length;
+    }
+
+    @Override public int getBytes(final int index, final ByteBuffer dstBuffer, final int length) {
+      return source.getBytes(index, dstBuffer, length);
+    }
+
+    @Override public short getShort(final int index) {
+      final short value = UNSAFE.getShort(array, addressOffset + index);
+      return NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN ? Short.reverseBytes(value) : value;
+    }
+
+    @Override public int getInt(final int index) {
+      final int value = UNSAFE.getInt(array, addressOffset + index);
+      return NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN ? Integer.reverseBytes(value) : value;
+    }
+
+    @Override public long getLong(final int index) {
+      final long value = UNSAFE.getLong(array, addressOffset + index);
+      return NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN ? Long.reverseBytes(value) : value;
+    }
+
+    @Override public void putByte(final int index, final byte value) {
+      throw new ReadOnlyBufferException();
+    }
+
+    @Override public int putBytes(final int index, final byte[] src) {
+      throw new ReadOnlyBufferException();
+    }
+
+    @Override public int putBytes(final int index, final byte[] src, final int offset, final int length) {
+      throw new ReadOnlyBufferException();
+    }
+
+    @Override public int putBytes(final int index, final ByteBuffer srcBuffer, final int length) {
+      throw new ReadOnlyBufferException();
+    }
+
+    @Override public void putShort(final int index, final short value) {
+      throw new ReadOnlyBufferException();
+    }
+
+    @Override public void putInt(final int index, final int value) {
+      throw new ReadOnlyBufferException();
+    }
+
+    @Override public void putLong(final int index, final long value) {
+      throw new ReadOnlyBufferException();
+    }
+  }
+
+  static long getLongVolatile(ByteBuffer buffer, int index) {
+    return UNSAFE.getLongVolatile(null, ((sun.nio.ch.DirectBuffer) buffer).address() + index);
+  }
+
+  static void putLongOrdered(ByteBuffer buffer, int index, long value) {
+    UNSAFE.putOrderedLong(null, ((sun.nio.ch.DirectBuffer) buffer).address() + index, value);
+  }
+
   private final byte[] array;
   private final ByteBuffer buffer;
   private final long addressOffset;
@@ -70,6 +174,10 @@ final class UnsafeBerBuffer implements BerBuffer {
     capacity = src.capacity();
   }
 
+  Trusted trustedView() {
+    return new Trusted(this);
+  }
+
   @Override public int capacity() {
     return capacity;
   }
@@ -129,6 +237,21 @@ final class UnsafeBerBuffer implements BerBuffer {
     return count;
   }
 
+  @Override public short getShort(final int index) {
+    final short value = UNSAFE.getShort(array, addressOffset + index);
+    return NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN ? Short.reverseBytes(value) : value;
+  }
+
+  @Override public int getInt(final int index) {
+    final int value = UNSAFE.getInt(array, addressOffset + index);
+    return NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN ? Integer.reverseBytes(value) : value;
+  }
+
+  @Override public long getLong(final int index) {
+    final long value = UNSAFE.getLong(array, addressOffset + index);
+    return NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN ? Long.reverseBytes(value) : value;
+  }
+
   @Override public void putByte(final int index, final byte value) {
     UNSAFE.putByte(array, addressOffset + index, value);
   }
@@ -164,6 +287,14 @@ final class UnsafeBerBuffer implements BerBuffer {
     return count;
   }
 
+  @Override public void putShort(final int index, final short value) {
+    short ordered = value;
+    if (NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN) {
+      ordered = Short.reverseBytes(value);
+    }
+    UNSAFE.putShort(array, addressOffset + index, ordered);
+  }
+
   @Override public void putInt(final int index, final int value) {
     int ordered = value;
     if (NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN) {
@@ -171,4 +302,12 @@ final class UnsafeBerBuffer implements BerBuffer {
     }
     UNSAFE.putInt(array, addressOffset + index, ordered);
   }
+
+  @Override public void putLong(final int index, final long value) {
+    long ordered = value;
+    if (NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN) {
+      ordered = Long.reverseBytes(value);
+    }
+    UNSAFE.putLong(array, addressOffset + index, ordered);
+  }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Entry point of the VarHandle based BerBuffer. This Java 8 version reports the backend
+ * as unavailable, the multi-release jar replaces it on Java 9 and later with the version
+ * from {@code src9} which creates VarHandleBerBuffer instances.
+ */
+final class VarHandleSupport {
+
+  static boolean isAvailable() {
+    return false;
+  }
+
+  static BerBuffer create(byte[] src) {
+    throw new UnsupportedOperationException("VarHandle BerBuffer requires Java 9 or later");
+  }
+
+  static BerBuffer create(ByteBuffer src) {
+    throw new UnsupportedOperationException("VarHandle BerBuffer requires Java 9 or later");
+  }
+
+  static long getLongVolatile(ByteBuffer buffer, int index) {
+    throw new UnsupportedOperationException("VarHandle access requires Java 9 or later");
+  }
+
+  static void putLongOrdered(ByteBuffer buffer, int index, long value) {
+    throw new UnsupportedOperationException("VarHandle access requires Java 9 or later");
+  }
+
+  private VarHandleSupport() {
+    throw new AssertionError("Utility class");
+  }
+}
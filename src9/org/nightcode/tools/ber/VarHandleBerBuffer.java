@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.meta.When;
+
+/**
+ * BerBuffer over a byte array or a direct {@link ByteBuffer} which uses byte view VarHandles
+ * for multi-byte access. Unlike UnsafeBerBuffer it needs neither sun.misc.Unsafe nor
+ * sun.nio.ch.DirectBuffer, so it works on recent JDKs without --add-opens or --add-exports.
+ */
+final class VarHandleBerBuffer implements BerBuffer {
+
+  private static final VarHandle ARRAY_SHORT
+      = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle ARRAY_INT
+      = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle ARRAY_LONG
+      = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle BUFFER_SHORT
+      = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle BUFFER_INT
+      = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle BUFFER_LONG
+      = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private final byte[] array;
+  private final int arrayOffset;
+  private final ByteBuffer buffer;
+  private final int capacity;
+
+  VarHandleBerBuffer(byte[] src) {
+    array = src;
+    arrayOffset = 0;
+    buffer = ByteBuffer.wrap(src);
+    capacity = src.length;
+  }
+
+  VarHandleBerBuffer(ByteBuffer src) {
+    array = src.hasArray() ? src.array() : null;
+    arrayOffset = array != null ? src.arrayOffset() : 0;
+    buffer = src.duplicate();
+    capacity = src.capacity();
+  }
+
+  @Override public int capacity() {
+    return capacity;
+  }
+
+  @CheckReturnValue(when = When.NEVER)
+  @Override public int checkIndex(final int index) {
+    if (index >= capacity) {
+      throw new IndexOutOfBoundsException(String.format("index is beyond bound (i=%d; b=%d)"
+          , index, capacity - 1));
+    }
+    return index;
+  }
+
+  @CheckReturnValue(when = When.NEVER)
+  @Override public int checkLimit(final int limit) {
+    if (limit > capacity) {
+      throw new IndexOutOfBoundsException(String.format("limit is beyond capacity (l=%d; c=%d)"
+          , limit, capacity));
+    }
+    return limit;
+  }
+
+  @Override public ByteBuffer duplicateByteBuffer() {
+    return buffer.duplicate();
+  }
+
+  @Override public byte getByte(final int index) {
+    if (array != null) {
+      return array[arrayOffset + index];
+    }
+    return buffer.get(index);
+  }
+
+  @Override public int getBytes(final int index, final byte[] dst) {
+    return getBytes(index, dst, 0, dst.length);
+  }
+
+  @Override public int getBytes(final int index, final byte[] dst, final int offset,
+      final int length) {
+    final int count = Math.min(length, capacity - index);
+    if (array != null) {
+      System.arraycopy(array, arrayOffset + index, dst, offset, count);
+    } else {
+      final ByteBuffer src = buffer.duplicate();
+      src.position(index);
+      src.get(dst, offset, count);
+    }
+    return count;
+  }
+
+  @Override public int getBytes(final int index, final ByteBuffer dstBuffer, final int length) {
+    int count = Math.min(dstBuffer.remaining(), capacity - index);
+    count = Math.min(count, length);
+    if (array != null) {
+      dstBuffer.put(array, arrayOffset + index, count);
+    } else {
+      final ByteBuffer src = buffer.duplicate();
+      src.limit(index + count);
+      src.position(index);
+      dstBuffer.put(src);
+    }
+    return count;
+  }
+
+  @Override public short getShort(final int index) {
+    if (array != null) {
+      return (short) ARRAY_SHORT.get(array, arrayOffset + index);
+    }
+    return (short) BUFFER_SHORT.get(buffer, index);
+  }
+
+  @Override public int getInt(final int index) {
+    if (array != null) {
+      return (int) ARRAY_INT.get(array, arrayOffset + index);
+    }
+    return (int) BUFFER_INT.get(buffer, index);
+  }
+
+  @Override public long getLong(final int index) {
+    if (array != null) {
+      return (long) ARRAY_LONG.get(array, arrayOffset + index);
+    }
+    return (long) BUFFER_LONG.get(buffer, index);
+  }
+
+  @Override public void putByte(final int index, final byte value) {
+    if (array != null) {
+      array[arrayOffset + index] = value;
+    } else {
+      buffer.put(index, value);
+    }
+  }
+
+  @Override public int putBytes(final int index, final byte[] src) {
+    return putBytes(index, src, 0, src.length);
+  }
+
+  @Override public int putBytes(final int index, final byte[] src, final int offset,
+      final int length) {
+    final int count = Math.min(length, capacity - index);
+    if (array != null) {
+      System.arraycopy(src, offset, array, arrayOffset + index, count);
+    } else {
+      final ByteBuffer dst = buffer.duplicate();
+      dst.position(index);
+      dst.put(src, offset, count);
+    }
+    return count;
+  }
+
+  @Override public int putBytes(final int index, final ByteBuffer srcBuffer, final int length) {
+    int count = Math.min(srcBuffer.remaining(), capacity - index);
+    count = Math.min(count, length);
+    if (array != null) {
+      srcBuffer.get(array, arrayOffset + index, count);
+    } else {
+      final ByteBuffer src = srcBuffer.duplicate();
+      src.limit(src.position() + count);
+      final ByteBuffer dst = buffer.duplicate();
+      dst.position(index);
+      dst.put(src);
+      srcBuffer.position(srcBuffer.position() + count);
+    }
+    return count;
+  }
+
+  @Override public void putShort(final int index, final short value) {
+    if (array != null) {
+      ARRAY_SHORT.set(array, arrayOffset + index, value);
+    } else {
+      BUFFER_SHORT.set(buffer, index, value);
+    }
+  }
+
+  @Override public void putInt(final int index, final int value) {
+    if (array != null) {
+      ARRAY_INT.set(array, arrayOffset + index, value);
+    } else {
+      BUFFER_INT.set(buffer, index, value);
+    }
+  }
+
+  @Override public void putLong(final int index, final long value) {
+    if (array != null) {
+      ARRAY_LONG.set(array, arrayOffset + index, value);
+    } else {
+      BUFFER_LONG.set(buffer, index, value);
+    }
+  }
+}
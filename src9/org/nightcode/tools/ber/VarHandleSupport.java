@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Entry point of the VarHandle based BerBuffer, Java 9 version.
+ */
+final class VarHandleSupport {
+
+  private static final VarHandle LONG_VIEW
+      = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  static boolean isAvailable() {
+    return true;
+  }
+
+  static BerBuffer create(byte[] src) {
+    return new VarHandleBerBuffer(src);
+  }
+
+  static BerBuffer create(ByteBuffer src) {
+    return new VarHandleBerBuffer(src);
+  }
+
+  static long getLongVolatile(ByteBuffer buffer, int index) {
+    return (long) LONG_VIEW.getVolatile(buffer, index);
+  }
+
+  static void putLongOrdered(ByteBuffer buffer, int index, long value) {
+    LONG_VIEW.setRelease(buffer, index, value);
+  }
+
+  private VarHandleSupport() {
+    throw new AssertionError("Utility class");
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BerBufferPoolTest {
+
+  @Test
+  public void testSizeClasses() {
+    BerBufferPool pool = BerBufferPool.newInstance();
+
+    ByteBuffer small = pool.acquire(10);
+    assertEquals(256, small.capacity());
+    assertEquals(0, small.position());
+    assertEquals(10, small.limit());
+    assertFalse(small.isDirect());
+
+    ByteBuffer direct = pool.acquireDirect(257);
+    assertEquals(512, direct.capacity());
+    assertEquals(257, direct.limit());
+    assertTrue(direct.isDirect());
+
+    ByteBuffer large = pool.acquire((1 << 20) + 1);
+    assertEquals((1 << 20) + 1, large.capacity());
+  }
+
+  @Test
+  public void testReuse() {
+    BerBufferPool pool = BerBufferPool.newInstance();
+    ByteBuffer heap = pool.acquire(1000);
+    ByteBuffer direct = pool.acquireDirect(1000);
+    heap.put((byte) 1);
+    pool.release(heap);
+    pool.release(direct);
+
+    ByteBuffer reused = pool.acquire(700);
+    assertSame(heap, reused);
+    assertEquals(0, reused.position());
+    assertEquals(700, reused.limit());
+    assertSame(direct, pool.acquireDirect(1024));
+    assertNotSame(heap, pool.acquire(1000));
+  }
+
+  @Test
+  public void testNoPooling() {
+    BerBufferPool pool = BerBufferPool.newInstance(0);
+    ByteBuffer heap = pool.acquire(1000);
+    ByteBuffer direct = pool.acquireDirect(1000);
+    pool.release(heap);
+    pool.release(direct);
+
+    assertNotSame(heap, pool.acquire(1000));
+    assertNotSame(direct, pool.acquireDirect(1000));
+  }
+
+  @Test
+  public void testSharedStripes() throws Exception {
+    final BerBufferPool pool = BerBufferPool.newInstance(64);
+    final List<ByteBuffer> released = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      released.add(pool.acquireDirect(1 << 18));
+    }
+    for (ByteBuffer buffer : released) {
+      pool.release(buffer);
+    }
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> reused = executor.submit(() -> {
+        int count = 0;
+        for (int i = 0; i < 8; i++) {
+          ByteBuffer buffer = pool.acquireDirect(1 << 18);
+          for (ByteBuffer candidate : released) {
+            if (candidate == buffer) {
+              count++;
+            }
+          }
+        }
+        return count;
+      });
+      assertEquals(8, reused.get().intValue());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testConcurrentAcquireRelease() throws Exception {
+    final BerBufferPool pool = BerBufferPool.newInstance(4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        final byte marker = (byte) t;
+        futures.add(executor.submit(() -> {
+          for (int n = 0; n < 10000; n++) {
+            ByteBuffer buffer = n % 2 == 0 ? pool.acquire(100_000) : pool.acquireDirect(100_000);
+            buffer.put(0, marker);
+            buffer.put(99_999, marker);
+            Thread.yield();
+            assertEquals(marker, buffer.get(0));
+            assertEquals(marker, buffer.get(99_999));
+            pool.release(buffer);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testLeakDetection() throws InterruptedException {
+    BerBufferPool pool = new BerBufferPool(16, true);
+    ByteBuffer buffer = pool.acquire(16);
+    ByteBuffer outstanding = pool.acquire(16);
+    try {
+      pool.release(ByteBuffer.allocate(256));
+      fail("exception must be thrown");
+    } catch (IllegalStateException ex) {
+      assertEquals("ByteBuffer has not been acquired from the pool or has been already released", ex.getMessage());
+    }
+    pool.release(buffer);
+    pool.release(outstanding);
+    try {
+      pool.release(buffer);
+      fail("exception must be thrown");
+    } catch (IllegalStateException ex) {
+      assertEquals("ByteBuffer has not been acquired from the pool or has been already released", ex.getMessage());
+    }
+
+    pool.acquire(2 << 20);
+    for (int i = 0; i < 50 && pool.leaks() == 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(1, pool.leaks());
+  }
+}
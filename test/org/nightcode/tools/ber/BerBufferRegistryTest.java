@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerBufferRegistryTest {
+
+  interface Memory {
+    ByteBuffer bytes();
+  }
+
+  static final class Region implements Memory {
+    private final ByteBuffer memory;
+    private final int offset;
+    private final int length;
+
+    Region(ByteBuffer memory, int offset, int length) {
+      this.memory = memory;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override public ByteBuffer bytes() {
+      ByteBuffer view = memory.duplicate();
+      view.limit(offset + length);
+      view.position(offset);
+      return view.slice();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    BerBufferRegistry.unregister(Memory.class);
+    BerBufferRegistry.unregister(Region.class);
+  }
+
+  @Test
+  public void testDefaultFactories() {
+    byte[] src = hexToByteArray("5A0130");
+
+    BerBuffer heap = BerBufferRegistry.create(src);
+    assertEquals(3, heap.capacity());
+    assertEquals(0x5A01, heap.getShort(0));
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(3);
+    direct.put(src).flip();
+    BerBuffer buffer = BerBufferRegistry.create(direct);
+    assertEquals(3, buffer.capacity());
+    assertEquals(0x01, buffer.getByte(1));
+  }
+
+  @Test
+  public void testDefaultFactoriesCheckIndexes() {
+    for (Object memory : new Object[] {new byte[16], ByteBuffer.allocate(16), ByteBuffer.allocateDirect(16)}) {
+      final BerBuffer buffer = BerBufferRegistry.create(memory);
+      assertOutOfBounds(() -> buffer.getByte(100000));
+      assertOutOfBounds(() -> buffer.getByte(-1));
+      assertOutOfBounds(() -> buffer.getShort(15));
+      assertOutOfBounds(() -> buffer.getInt(13));
+      assertOutOfBounds(() -> buffer.getLong(9));
+      assertOutOfBounds(() -> buffer.getBytes(17, new byte[1]));
+      assertOutOfBounds(() -> buffer.getBytes(0, new byte[4], 2, 4));
+      assertOutOfBounds(() -> buffer.putByte(16, (byte) 1));
+      assertOutOfBounds(() -> buffer.putShort(-2, (short) 1));
+      assertOutOfBounds(() -> buffer.putInt(13, 1));
+      assertOutOfBounds(() -> buffer.putLong(100000, 1L));
+      assertOutOfBounds(() -> buffer.putBytes(17, new byte[1]));
+      assertOutOfBounds(() -> buffer.putBytes(0, new byte[4], 3, 2));
+      assertOutOfBounds(() -> buffer.putBytes(-1, ByteBuffer.allocate(1), 1));
+
+      buffer.putLong(8, 0x0102030405060708L);
+      assertEquals(0x0102030405060708L, buffer.getLong(8));
+      assertEquals(0, buffer.getBytes(16, new byte[1]));
+    }
+  }
+
+  @Test
+  public void testUserSuppliedMemory() {
+    BerBufferRegistry.register(Memory.class, memory -> BerBufferRegistry.create(memory.bytes()));
+    ByteBuffer shared = ByteBuffer.allocateDirect(64);
+    Region region = new Region(shared, 16, 32);
+
+    BerBuilder builder = BerBuilder.newInstance();
+    builder.add(0x5A, hexToByteArray("30"));
+    builder.add(0x5F2D, hexToByteArray("656E"));
+    builder.writeTo(BerBufferRegistry.create(region), 0);
+
+    assertEquals(0x5A, shared.get(16));
+    BerFrame berFrame = BerFrame.parseFrom(BerBufferRegistry.create(region), 0, builder.length());
+    assertArrayEquals(hexToByteArray("30"), berFrame.getContent(0x5A));
+    assertArrayEquals(hexToByteArray("656E"), berFrame.getContent(0x5F2D));
+  }
+
+  @Test
+  public void testLookupOrder() {
+    BerBuffer empty = BerBufferRegistry.create(new byte[0]);
+    BerBufferRegistry.register(Memory.class, memory -> BerBufferRegistry.create(memory.bytes()));
+    BerBufferRegistry.register(Region.class, region -> empty);
+
+    assertEquals(0, BerBufferRegistry.create(new Region(ByteBuffer.allocate(8), 0, 8)).capacity());
+    assertTrue(BerBufferRegistry.unregister(Region.class));
+    assertEquals(8, BerBufferRegistry.create(new Region(ByteBuffer.allocate(8), 0, 8)).capacity());
+  }
+
+  @Test
+  public void testUnknownMemoryType() {
+    assertFalse(BerBufferRegistry.unregister(Memory.class));
+    try {
+      BerBufferRegistry.create(new Region(ByteBuffer.allocate(8), 0, 8));
+      fail("must throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      assertEquals("no BerBufferFactory registered for " + Region.class.getName(), ex.getMessage());
+    }
+  }
+
+  private static void assertOutOfBounds(Runnable access) {
+    try {
+      access.run();
+      fail("should throw IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException ex) {
+      // do nothing
+    }
+  }
+}
@@ -17,6 +17,11 @@
 package org.nightcode.tools.ber;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -60,6 +65,13 @@ public class BerBufferTest {
   public static final BerBuffer DIRECT_BYTE_BUFFER
       = new DirectBerBuffer(ByteBuffer.allocateDirect(BUFFER_CAPACITY));
 
+  @DataPoint
+  public static final BerBuffer DIRECT_LITTLE_ENDIAN_BYTE_BUFFER
+      = new DirectBerBuffer(ByteBuffer.allocateDirect(BUFFER_CAPACITY).order(ByteOrder.LITTLE_ENDIAN));
+
+  @DataPoint
+  public static final BerBuffer SLICED_HEAP_BYTE_BUFFER
+      = BerBufferUtil.create(ByteBuffer.wrap(new byte[BUFFER_CAPACITY + 16], 16, BUFFER_CAPACITY).slice());
 
   @Theory
   public void shouldGetCapacity(final BerBuffer buffer) {
@@ -191,6 +203,80 @@ public class BerBufferTest {
     Assert.assertThat(Integer.valueOf(duplicateBuffer.getInt(INDEX)), is(Integer.valueOf(INT_VALUE)));
   }
 
+  @Theory
+  public void shouldGetShortIntLongFromBuffer(final BerBuffer berBuffer) {
+    final ByteBuffer duplicateBuffer = berBuffer.duplicateByteBuffer();
+    duplicateBuffer.putLong(INDEX, 0x8182838485868788L);
+
+    Assert.assertEquals((short) 0x8182, berBuffer.getShort(INDEX));
+    Assert.assertEquals(0x81828384, berBuffer.getInt(INDEX));
+    Assert.assertEquals(0x82838485, berBuffer.getInt(INDEX + 1));
+    Assert.assertEquals(0x8182838485868788L, berBuffer.getLong(INDEX));
+  }
+
+  @Theory
+  public void shouldPutShortLongToBuffer(final BerBuffer berBuffer) {
+    final ByteBuffer duplicateBuffer = berBuffer.duplicateByteBuffer();
+
+    berBuffer.putLong(INDEX, 0x8182838485868788L);
+    Assert.assertEquals(0x8182838485868788L, duplicateBuffer.getLong(INDEX));
+
+    berBuffer.putShort(INDEX + 1, (short) 0xF1F2);
+    Assert.assertEquals(0x81F1F284, duplicateBuffer.getInt(INDEX));
+  }
+
+  @Theory
+  public void shouldGetBytesConcurrently(final BerBuffer berBuffer) throws Exception {
+    final ByteBuffer duplicateBuffer = berBuffer.duplicateByteBuffer();
+    for (int i = 0; i < BUFFER_CAPACITY; i++) {
+      duplicateBuffer.put(i, (byte) i);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?>[] futures = new Future<?>[4];
+      for (int t = 0; t < futures.length; t++) {
+        final int shift = t;
+        futures[t] = executor.submit(new Callable<Object>() {
+          @Override public Object call() {
+            final byte[] dst = new byte[16];
+            final ByteBuffer dstBuffer = ByteBuffer.allocate(16);
+            for (int n = 0; n < 10000; n++) {
+              int index = (n * 31 + shift * 7) % (BUFFER_CAPACITY - dst.length);
+              berBuffer.getBytes(index, dst);
+              dstBuffer.clear();
+              berBuffer.getBytes(index, dstBuffer, dst.length);
+              for (int i = 0; i < dst.length; i++) {
+                Assert.assertEquals((byte) (index + i), dst[i]);
+                Assert.assertEquals((byte) (index + i), dstBuffer.get(i));
+              }
+            }
+            return null;
+          }
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testDirectBufferPositionUnchanged() {
+    final ByteBuffer src = ByteBuffer.allocateDirect(BUFFER_CAPACITY);
+    final BerBuffer berBuffer = new DirectBerBuffer(src);
+
+    berBuffer.getBytes(INDEX, new byte[BYTE_ARRAY_VALUE.length]);
+    berBuffer.getBytes(INDEX, ByteBuffer.allocate(BYTE_ARRAY_VALUE.length), BYTE_ARRAY_VALUE.length);
+    berBuffer.putBytes(INDEX, BYTE_ARRAY_VALUE);
+    berBuffer.putBytes(INDEX, ByteBuffer.wrap(BYTE_ARRAY_VALUE), BYTE_ARRAY_VALUE.length);
+
+    Assert.assertEquals(0, src.position());
+    Assert.assertEquals(BUFFER_CAPACITY, src.limit());
+  }
+
   @Test
   public void testIntTobByteArray() {
     byte[] expected = new byte[] {0, 0, 1, 0};
@@ -24,19 +24,43 @@ import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class BerBufferUtilTest {
 
   private static final int BUFFER_CAPACITY = 1024 * 4;
 
+  @Test
+  public void testRangeEquals() {
+    byte[] src = new byte[32];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = (byte) (i * 37);
+    }
+    BerBuffer left = BerBufferUtil.create(src);
+    BerBuffer right = BerBufferUtil.create(ByteBuffer.allocateDirect(40));
+    right.putBytes(3, src);
+    for (int length = 0; length <= src.length; length++) {
+      byte[] target = Arrays.copyOf(src, length);
+      Assert.assertTrue(BerBufferUtil.rangeEquals(left, 0, target));
+      Assert.assertTrue(BerBufferUtil.rangeEquals(left, 0, right, 3, length));
+      if (length > 0) {
+        target[length - 1]++;
+        Assert.assertFalse(BerBufferUtil.rangeEquals(left, 0, target));
+        Assert.assertFalse(BerBufferUtil.rangeEquals(left, 0, right, 4, length));
+      }
+    }
+  }
+
   @Test
   public void testCreate() throws IOException {
     System.setProperty("org.nightcode.tools.ber.noUnsafe", "true");
+    System.setProperty("org.nightcode.tools.ber.noVarHandle", "true");
 
     Enumeration<URL> en = Thread.currentThread().getContextClassLoader().getResources("");
     List<URL> urls = new ArrayList<>();
@@ -77,6 +101,7 @@ public class BerBufferUtilTest {
   @Test
   public void testCreateUnsafe() throws IOException {
     System.setProperty("org.nightcode.tools.ber.noUnsafe", "false");
+    System.setProperty("org.nightcode.tools.ber.noVarHandle", "true");
 
     Enumeration<URL> en = Thread.currentThread().getContextClassLoader().getResources("");
     List<URL> urls = new ArrayList<>();
@@ -114,6 +139,53 @@ public class BerBufferUtilTest {
     });
   }
 
+  @Test
+  public void testCreateVarHandle() throws IOException {
+    Assume.assumeFalse("VarHandle requires Java 9"
+        , System.getProperty("java.specification.version").startsWith("1."));
+    System.setProperty("org.nightcode.tools.ber.noVarHandle", "false");
+
+    // versioned classes go first, as a multi-release jar presents them on Java 9 and later
+    URL classes = BerBufferUtil.class.getProtectionDomain().getCodeSource().getLocation();
+    List<URL> urls = new ArrayList<>();
+    urls.add(new URL(classes, "META-INF/versions/9/"));
+    Enumeration<URL> en = Thread.currentThread().getContextClassLoader().getResources("");
+    while (en.hasMoreElements()) {
+      urls.add(en.nextElement());
+    }
+
+    URLClassLoader classLoader = new URLClassLoader(urls.toArray(new URL[0])
+        , ClassLoader.getSystemClassLoader().getParent());
+
+    AccessController.doPrivileged(new PrivilegedAction<Object>() {
+      @Override public Object run() {
+        try {
+          Class<?> clazz = classLoader.loadClass(BerBufferUtil.class.getName());
+          Method methodArray = clazz.getDeclaredMethod("create", byte[].class);
+          methodArray.setAccessible(true);
+
+          Method methodByteBuffer = clazz.getDeclaredMethod("create", ByteBuffer.class);
+          methodByteBuffer.setAccessible(true);
+
+          String expected = BerBufferUtil.class.getPackage().getName() + ".VarHandleBerBuffer";
+
+          Object target = methodArray.invoke(null, new byte[BUFFER_CAPACITY]);
+          Assert.assertEquals(expected, target.getClass().getName());
+
+          target = methodByteBuffer.invoke(null, ByteBuffer.allocate(BUFFER_CAPACITY));
+          Assert.assertEquals(expected, target.getClass().getName());
+
+          target = methodByteBuffer.invoke(null, ByteBuffer.allocateDirect(BUFFER_CAPACITY));
+          Assert.assertEquals(expected, target.getClass().getName());
+
+        } catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+        return null;
+      }
+    });
+  }
+
   @Test
   public void testGetBoolean() {
     String key = "tools.ber.test";
@@ -18,12 +18,21 @@ package org.nightcode.tools.ber;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import com.sun.management.ThreadMXBean;
+import org.junit.Assume;
 import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
 
 public class BerBuilderTest {
@@ -373,4 +382,359 @@ public class BerBuilderTest {
 
     assertArrayEquals(expected, out.toByteArray());
   }
+
+  @Test
+  public void testReset() {
+    BerBuilder nested = BerBuilder.newInstance().add(0x9F02, hexToByteArray("000000001000"));
+    BerBuilder builder = BerBuilder.newInstance().add(0x5A, hexToByteArray("4761")).add(0xE1, nested);
+
+    builder.reset();
+    assertEquals(0, builder.length());
+
+    builder.add(0xE1, nested).add(hexToByteArray("5F2D"), hexToByteArray("656E"));
+    byte[] dst = new byte[builder.length()];
+    builder.writeTo(dst);
+
+    assertArrayEquals(hexToByteArray("E1099F02060000000010005F2D02656E"), dst);
+  }
+
+  @Test
+  public void testResetDoesNotAllocate() {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+    ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+    final byte[] pan = hexToByteArray("4761739001010010");
+    final ByteBuffer dst = ByteBuffer.allocate(64);
+    final BerBuffer dstBuffer = BerBufferRegistry.create(dst);
+    final BerBuilder nested = BerBuilder.newInstance();
+    final BerBuilder builder = BerBuilder.newInstance();
+    for (int i = 0; i < 20_000; i++) {
+      encode(builder, nested, pan, dstBuffer);
+    }
+
+    final int iterations = 100_000;
+    final long threadId = Thread.currentThread().getId();
+    final long start = threadBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < iterations; i++) {
+      encode(builder, nested, pan, dstBuffer);
+    }
+    final long allocated = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+    // a single allocation per encoding would take at least 16 bytes
+    assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+    assertArrayEquals(hexToByteArray("5A084761739001010010E1099F0206000000001000")
+        , get(dst, 0, builder.length()));
+  }
+
+  @Test
+  public void testWriteToOutputStreamInBlocks() throws IOException {
+    final byte[] content = new byte[20_000];
+    new Random().nextBytes(content);
+    BerBuilder nested = BerBuilder.newInstance();
+    for (int i = 0; i < 500; i++) {
+      nested.add(0x9F02, hexToByteArray("000000001000"));
+    }
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0xE1, nested)
+        .add(0x5A, content)
+        .add(0x9F36, hexToByteArray("0060"));
+
+    final int[] writes = new int[1];
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override public synchronized void write(int b) {
+        throw new AssertionError("single byte write");
+      }
+
+      @Override public synchronized void write(byte[] b, int off, int len) {
+        writes[0]++;
+        super.write(b, off, len);
+      }
+    };
+    builder.writeTo(out);
+
+    byte[] expected = new byte[builder.length()];
+    builder.writeTo(expected);
+    assertArrayEquals(expected, out.toByteArray());
+    // leading chunk, large contents written directly, trailing chunk
+    assertEquals(3, writes[0]);
+  }
+
+  @Test
+  public void testWriteToChannel() throws IOException {
+    final byte[] content = new byte[10_000];
+    new Random().nextBytes(content);
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0x5F2D, hexToByteArray("656E"))
+        .add(0x84, content)
+        .add(0xE1, BerBuilder.newInstance().add(0x9F36, hexToByteArray("0060")));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.writeTo(Channels.newChannel(out));
+
+    byte[] expected = new byte[builder.length()];
+    builder.writeTo(expected);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  @Test
+  public void testAddByteBuffer() throws IOException {
+    ByteBuffer direct = ByteBuffer.allocateDirect(8);
+    direct.put(hexToByteArray("00004761739001010010"), 2, 8).flip();
+    ByteBuffer heap = ByteBuffer.wrap(hexToByteArray("FF656EFF"), 1, 2).slice();
+
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0x5A, direct)
+        .add(hexToByteArray("5F2D"), heap);
+
+    final byte[] expected = hexToByteArray("5A0847617390010100105F2D02656E");
+    byte[] dst = new byte[builder.length()];
+    builder.writeTo(dst);
+    assertArrayEquals(expected, dst);
+    assertEquals(0, direct.position());
+    assertEquals(0, heap.position());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.writeTo(out);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  @Test
+  public void testAddBerFrameAsContent() throws IOException {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray("5A0247618801025F2D02656E"));
+
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0xE1, berFrame)
+        .addRaw(berFrame)
+        .addRaw(hexToByteArray("9F36020060"));
+
+    final byte[] expected = hexToByteArray("E10C5A0247618801025F2D02656E5A0247618801025F2D02656E9F36020060");
+    ByteBuffer buffer = ByteBuffer.allocateDirect(builder.length());
+    builder.writeTo(buffer);
+    assertArrayEquals(expected, get(buffer, 0, builder.length()));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.writeTo(out);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  @Test
+  public void testAddBerFrameNormalizesLengthOctets() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray("5A8102476188820001025F2D02656E"));
+
+    BerBuilder builder = BerBuilder.newInstance().add(berFrame).addRef(berFrame);
+
+    byte[] dst = new byte[builder.length()];
+    builder.writeTo(dst);
+    assertArrayEquals(hexToByteArray("5A0247618801025F2D02656E5A0247618801025F2D02656E"), dst);
+  }
+
+  @Test
+  public void testAddBerFrameCopiesContent() {
+    byte[] src = hexToByteArray("5A0247615F2D02656E");
+    BerFrame berFrame = BerFrame.parseFrom(src);
+
+    BerBuilder copy = BerBuilder.newInstance().add(berFrame);
+    BerBuilder ref = BerBuilder.newInstance().addRef(berFrame);
+    src[2] = 0x00;
+
+    byte[] dst = new byte[copy.length()];
+    copy.writeTo(dst);
+    assertArrayEquals(hexToByteArray("5A0247615F2D02656E"), dst);
+    ref.writeTo(dst);
+    assertArrayEquals(hexToByteArray("5A0200615F2D02656E"), dst);
+  }
+
+  @Test
+  public void testAddPrimitives() throws IOException {
+    BerBuilder builder = BerBuilder.newInstance()
+        .addByte(0x9F27, (byte) 0x80)
+        .addInt(0x9F41, 0x01020304)
+        .addUnsignedLong(0x9F36, 0x60)
+        .addUnsignedLong(hexToByteArray("9F37"), 0xFFFFFFFFFFFFFFFFL)
+        .addUnsignedLong(0x9F10, 0x0102, 4)
+        .addUnsignedLong(hexToByteArray("9F4C"), 0x0A0B, 8)
+        .addBcd(0x9F02, 1000, 6)
+        .addBcd(hexToByteArray("5F2A"), 643, 2);
+
+    final byte[] expected = hexToByteArray("9F2701809F4104010203049F360160"
+        + "9F3708FFFFFFFFFFFFFFFF9F1004000001029F4C080000000000000A0B9F02060000000010005F2A020643");
+    byte[] dst = new byte[builder.length()];
+    builder.writeTo(dst);
+    assertArrayEquals(expected, dst);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.writeTo(out);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  @Test
+  public void testAddWideBcd() throws IOException {
+    final int width = 20_000;
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0x5A, new byte[8000])
+        .addBcd(0x9F02, 1000, width);
+
+    byte[] expected = new byte[builder.length()];
+    builder.writeTo(expected);
+    assertEquals(0x10, expected[expected.length - 2]);
+    assertEquals(0x00, expected[expected.length - 1]);
+    assertEquals(0x00, expected[expected.length - 3]);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.writeTo(out);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  @Test
+  public void testAddPrimitivesOutOfRange() {
+    BerBuilder builder = BerBuilder.newInstance();
+    try {
+      builder.addUnsignedLong(0x9F36, 0x10000, 2);
+      fail("should throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      assertEquals("value 65536 does not fit into 2 octets", ex.getMessage());
+    }
+    try {
+      builder.addUnsignedLong(hexToByteArray("9F4C"), -1L, 7);
+      fail("should throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      assertEquals("value 18446744073709551615 does not fit into 7 octets", ex.getMessage());
+    }
+    try {
+      builder.addBcd(0x9F02, 1000, 1);
+      fail("should throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      assertEquals("value 1000 does not fit into 1 BCD octets", ex.getMessage());
+    }
+    try {
+      builder.addBcd(0x9F02, -1, 6);
+      fail("should throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      // do nothing
+    }
+    assertEquals(0, builder.length());
+  }
+
+  @Test
+  public void testDer() throws IOException {
+    BerBuilder set = BerBuilder.newInstance()
+        .add(0x02, hexToByteArray("03"))
+        .add(0x02, hexToByteArray("01"))
+        .add(0x02, hexToByteArray("0080"));
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0x30, BerBuilder.newInstance()
+            .add(0x04, hexToByteArray("FF"))
+            .add(0x31, set)
+            .add(0x02, hexToByteArray("00"))
+            .add(0xA1, hexToByteArray("0400020105")));
+
+    byte[] ber = new byte[builder.length()];
+    builder.writeTo(ber);
+    assertArrayEquals(hexToByteArray("30190401FF310A02010302010102020080020100A1050400020105"), ber);
+
+    builder.der(0xA1);
+    final byte[] expected = hexToByteArray("30190401FF310A02010102010302020080020100A1050201050400");
+    byte[] der = new byte[builder.length()];
+    builder.writeTo(der);
+    assertArrayEquals(expected, der);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.writeTo(out);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  @Test
+  public void testWriteToBufferPool() {
+    BerBufferPool pool = BerBufferPool.newInstance();
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0x6F, BerBuilder.newInstance().addHexString(0x84, "315041592E5359532E4444463031"))
+        .add(0x9F36, new byte[] {0x00, 0x60});
+    byte[] expected = new byte[builder.length()];
+    builder.writeTo(expected);
+
+    for (boolean direct : new boolean[] {false, true}) {
+      ByteBuffer encoded = builder.writeTo(pool, direct);
+      assertEquals(direct, encoded.isDirect());
+      assertEquals(0, encoded.position());
+      assertEquals(expected.length, encoded.remaining());
+      byte[] actual = new byte[encoded.remaining()];
+      encoded.get(actual);
+      assertArrayEquals(expected, actual);
+      pool.release(encoded);
+      assertSame(encoded, builder.writeTo(pool, direct));
+    }
+  }
+
+  @Test
+  public void testWriteToFragments() {
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0x6F, BerBuilder.newInstance()
+            .addHexString(0x84, "315041592E5359532E4444463031")
+            .add(0xA5, BerBuilder.newInstance()
+                .add(0x88, new byte[] {0x02})
+                .addInt(0x9F02, 0x01020304)))
+        .add(0x9F36, new byte[] {0x00, 0x60});
+    byte[] expected = new byte[builder.length()];
+    builder.writeTo(expected);
+
+    ByteBuffer[] fragments = {ByteBuffer.allocate(5), ByteBuffer.allocateDirect(11), ByteBuffer.allocate(64)};
+    fragments[2].position(1);
+    builder.writeTo(fragments);
+
+    byte[] actual = new byte[expected.length];
+    new CompositeBerBuffer(fragments).getBytes(0, actual);
+    assertArrayEquals(expected, actual);
+    assertEquals(0, fragments[0].position());
+
+    builder.add(0x04, new byte[64]);
+    try {
+      builder.writeTo(fragments);
+      fail("exception must be thrown");
+    } catch (IndexOutOfBoundsException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWriteToForkJoinPool() {
+    Random random = new Random(42);
+    BerBuilder records = BerBuilder.newInstance();
+    BerBuilder set = BerBuilder.newInstance();
+    for (int i = 0; i < 5000; i++) {
+      byte[] value = new byte[random.nextInt(200)];
+      random.nextBytes(value);
+      records.add(0x30, BerBuilder.newInstance().addInt(0x02, i).add(0x04, value));
+      set.add(0x04, value);
+    }
+    BerBuilder builder = BerBuilder.newInstance()
+        .add(0xA0, records)
+        .add(0x31, set)
+        .add(0x5A, hexToByteArray("4000000000000002"));
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      byte[] expected = new byte[builder.length() + 3];
+      builder.writeTo(ByteBuffer.wrap(expected), 3);
+      ByteBuffer dst = ByteBuffer.allocateDirect(builder.length() + 3);
+      builder.writeTo(dst, 3, pool);
+      byte[] actual = new byte[dst.capacity()];
+      dst.get(actual);
+      assertArrayEquals(expected, actual);
+
+      builder.der();
+      builder.writeTo(ByteBuffer.wrap(expected), 3);
+      actual = new byte[expected.length];
+      builder.writeTo(ByteBuffer.wrap(actual), 3, pool);
+      assertArrayEquals(expected, actual);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void encode(BerBuilder builder, BerBuilder nested, byte[] pan, BerBuffer dst) {
+    nested.reset().addBcd(0x9F02, 1000, 6);
+    builder.reset().add(0x5A, pan).add(0xE1, nested);
+    builder.writeTo(dst, 0);
+  }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerDiffTest {
+
+  private static final byte[] BER = hexToByteArray(
+      "6F1A840E315041592E5359532E4444463031A5088801025F2D02656E9F36020060");
+
+  @Test
+  public void testDiffEqual() {
+    BerFrame left = BerFrame.parseFrom(BER);
+    BerFrame right = BerFrame.parseFrom(BER.clone());
+
+    assertTrue(left.diff(right).isEmpty());
+    assertTrue(left.diff(left).isEmpty());
+  }
+
+  @Test
+  public void testDiffEqualDirectBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BER.length + 3);
+    buffer.position(3);
+    buffer.put(BER);
+    BerFrame left = BerFrame.parseFrom(buffer, 3, BER.length);
+    BerFrame right = BerFrame.parseFrom(BER);
+
+    assertTrue(left.diff(right).isEmpty());
+  }
+
+  @Test
+  public void testDiffChanged() {
+    BerFrame left = BerFrame.parseFrom(BER);
+    BerFrame right = BerFrame.parseFrom(hexToByteArray(
+        "6F1A840E315041592E5359532E4444463031A5088801035F2D02656E9F36020061"));
+
+    List<BerDiff> diffs = left.diff(right);
+
+    assertEquals(2, diffs.size());
+    assertEquals(BerDiff.Type.CHANGED, diffs.get(0).getType());
+    assertEquals("6F/A5/88", diffs.get(0).getPathAsHexString());
+    assertArrayEquals(hexToByteArray("02"), diffs.get(0).getLeftContent());
+    assertArrayEquals(hexToByteArray("03"), diffs.get(0).getRightContent());
+    assertEquals("CHANGED 9F36 0060 -> 0061", diffs.get(1).toString());
+  }
+
+  @Test
+  public void testDiffAddedRemoved() {
+    BerFrame left = BerFrame.parseFrom(hexToByteArray("5A01305F2D02656E9F36020060"));
+    BerFrame right = BerFrame.parseFrom(hexToByteArray("5F2D02656E9F3602006057021234"));
+
+    List<BerDiff> diffs = left.diff(right);
+
+    assertEquals(2, diffs.size());
+    assertEquals(BerDiff.Type.REMOVED, diffs.get(0).getType());
+    assertArrayEquals(hexToByteArray("5A"), diffs.get(0).getIdentifier());
+    assertArrayEquals(hexToByteArray("30"), diffs.get(0).getLeftContent());
+    assertNull(diffs.get(0).getRightContent());
+    assertEquals(BerDiff.Type.ADDED, diffs.get(1).getType());
+    assertArrayEquals(hexToByteArray("57"), diffs.get(1).getIdentifier());
+    assertNull(diffs.get(1).getLeftContent());
+    assertArrayEquals(hexToByteArray("1234"), diffs.get(1).getRightContent());
+  }
+
+  @Test
+  public void testDiffReplaced() {
+    BerFrame left = BerFrame.parseFrom(hexToByteArray("5A01309F36020060"));
+    BerFrame right = BerFrame.parseFrom(hexToByteArray("5701319F36020060"));
+
+    List<BerDiff> diffs = left.diff(right);
+
+    assertEquals(2, diffs.size());
+    assertEquals("REMOVED 5A 30", diffs.get(0).toString());
+    assertEquals("ADDED 57 31", diffs.get(1).toString());
+  }
+}
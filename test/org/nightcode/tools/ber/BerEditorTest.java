@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerEditorTest {
+
+  private static final String BER = "6F1A840E315041592E5359532E4444463031A5088801025F2D02656E9F36020060";
+
+  @Test
+  public void testReplace() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray(BER));
+
+    byte[] result = berFrame.edit().replace(0x88, hexToByteArray("0304")).toByteArray();
+
+    assertArrayEquals(hexToByteArray(
+        "6F1B840E315041592E5359532E4444463031A509880203045F2D02656E9F36020060"), result);
+  }
+
+  @Test
+  public void testDelete() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray(BER));
+
+    byte[] result = berFrame.edit().delete(0x84).delete(0x9F36).toByteArray();
+
+    assertArrayEquals(hexToByteArray("6F0AA5088801025F2D02656E"), result);
+  }
+
+  @Test
+  public void testInsert() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray(BER));
+
+    BerFrame result = berFrame.edit()
+        .insert(0xA5, 0x9F12, hexToByteArray("4341"))
+        .insert(0x9F27, hexToByteArray("80"))
+        .toBerFrame();
+
+    assertArrayEquals(hexToByteArray(
+        "6F1F840E315041592E5359532E4444463031A50D8801025F2D02656E9F120243419F360200609F270180")
+        , result.toByteArray());
+    assertArrayEquals(hexToByteArray("4341"), result.getContent(0x9F12));
+  }
+
+  @Test
+  public void testInsertIntoPrimitive() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray(BER));
+    try {
+      berFrame.edit().insert(0x88, 0x9F12, hexToByteArray("4341"));
+      fail("should throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      // do nothing
+    }
+  }
+
+  @Test
+  public void testReplaceMissing() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray(BER));
+    try {
+      berFrame.edit().replace(0x5A, hexToByteArray("01"));
+      fail("should throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      // do nothing
+    }
+  }
+
+  @Test
+  public void testApplyInPlace() {
+    byte[] src = hexToByteArray(BER);
+    BerFrame berFrame = BerFrame.parseFrom(src);
+
+    assertTrue(berFrame.edit().replace(0x9F36, hexToByteArray("0061")).applyInPlace());
+    assertArrayEquals(hexToByteArray("0061"), berFrame.getContent(0x9F36));
+    assertEquals((byte) 0x61, src[src.length - 1]);
+
+    BerEditor editor = berFrame.edit().replace(0x9F36, hexToByteArray("000062"));
+    assertFalse(editor.applyInPlace());
+    assertArrayEquals(hexToByteArray("0061"), berFrame.getContent(0x9F36));
+    assertArrayEquals(hexToByteArray("000062"), editor.toBerFrame().getContent(0x9F36));
+  }
+
+  @Test
+  public void testApplyInPlaceRejectsConstructed() {
+    byte[] src = hexToByteArray("E106800141810142");
+    BerFrame berFrame = BerFrame.parseFrom(src);
+
+    BerEditor editor = berFrame.edit().replace(0xE1, hexToByteArray("040400000000"));
+    assertFalse(editor.applyInPlace());
+    assertArrayEquals(hexToByteArray("E106800141810142"), src);
+    assertArrayEquals(hexToByteArray("42"), berFrame.getContent(0x81));
+    assertArrayEquals(hexToByteArray("040400000000"), editor.toBerFrame().getContent(0xE1));
+  }
+
+  @Test
+  public void testWriteTo() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray(BER));
+    BerEditor editor = berFrame.edit().replace(0xA5, hexToByteArray("880101"));
+    ByteBuffer buffer = ByteBuffer.allocateDirect(editor.length() + 2);
+
+    assertEquals(editor.length(), editor.writeTo(buffer, 2));
+
+    byte[] result = new byte[editor.length()];
+    buffer.position(2);
+    buffer.get(result);
+    assertArrayEquals(hexToByteArray("6F15840E315041592E5359532E4444463031A5038801019F36020060"), result);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.nightcode.tools.ber.BerFrameTest.BER_WITH_DUP;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerFrameIndexTest {
+
+  @Test
+  public void testGetContent() {
+    BerFrameIndex frameIndex = BerFrameIndex.parseFrom(ByteBuffer.wrap(BER_WITH_DUP), 0, BER_WITH_DUP.length);
+    BerFrame berFrame = BerFrame.parseFrom(BER_WITH_DUP);
+
+    assertTrue(frameIndex.indexBuffer().isDirect());
+    assertEquals(0, frameIndex.offset());
+    assertEquals(BER_WITH_DUP.length, frameIndex.limit());
+    assertArrayEquals(hexToByteArray("30"), frameIndex.getContent(0x5A));
+    assertArrayEquals(hexToByteArray("34"), frameIndex.getContent(0xDFDFDF04));
+    assertArrayEquals(berFrame.getContent(0x88), frameIndex.getContent(0x88));
+    assertArrayEquals(berFrame.getContent(0xDFDFDFDFDF07L), frameIndex.getContent(0xDFDFDFDFDF07L));
+    assertNull(frameIndex.getContent(0x9F27));
+
+    assertEquals(berFrame.getAllContents(0x5F2D).size(), frameIndex.getAllContents(0x5F2D).size());
+    assertEquals(2, frameIndex.getAllContents(0x6F).size());
+    assertArrayEquals(berFrame.getAllContents(0x6F).get(1), frameIndex.getAllContents(0x6F).get(1));
+  }
+
+  @Test
+  public void testLongIdentifier() {
+    byte[] ber = hexToByteArray("DFDFDFDFDFDFDFDF090139DFDFDFDFDFDFDFDF0A0140");
+    BerFrameIndex frameIndex = BerFrameIndex.parseFrom(ByteBuffer.wrap(ber), 0, ber.length);
+
+    assertEquals(2, frameIndex.nodeCount());
+    assertArrayEquals(hexToByteArray("39"), frameIndex.getContent(hexToByteArray("DFDFDFDFDFDFDFDF09")));
+    assertArrayEquals(hexToByteArray("40"), frameIndex.getContent(hexToByteArray("DFDFDFDFDFDFDFDF0A")));
+    assertNull(frameIndex.getContent(hexToByteArray("DFDFDFDFDFDFDFDF0B")));
+  }
+
+  @Test
+  public void testGetTag() {
+    BerFrameIndex frameIndex = BerFrameIndex.parseFrom(ByteBuffer.wrap(BER_WITH_DUP), 0, BER_WITH_DUP.length);
+    BerFrame expected = BerFrame.parseFrom(BER_WITH_DUP).getTag(0xA5);
+    assertNotNull(expected);
+
+    BerFrame tag = frameIndex.getTag(0xA5);
+    assertNotNull(tag);
+    assertArrayEquals(expected.toByteArray(), tag.toByteArray());
+    assertArrayEquals(hexToByteArray("656E"), tag.getContent(0x5F2D));
+    assertNull(frameIndex.getTag(0x9F27));
+  }
+
+  @Test
+  public void testLargeFrame() {
+    BerBuilder batch = BerBuilder.newInstance();
+    for (int i = 0; i < 5000; i++) {
+      batch.add(0x30, BerBuilder.newInstance()
+          .add(0x80, ByteBuffer.allocate(4).putInt(0, i).array())
+          .add(0xA1, BerBuilder.newInstance().add(0x82, new byte[i % 20])));
+    }
+    BerBuilder builder = BerBuilder.newInstance().add(0x61, batch);
+    byte[] src = new byte[builder.length()];
+    builder.writeTo(src);
+
+    AtomicInteger allocations = new AtomicInteger();
+    AtomicInteger firstCapacity = new AtomicInteger();
+    BerFrameIndex frameIndex = BerFrameIndex.parseFrom(BerBufferUtil.create(src), 0, src.length, capacity -> {
+      if (allocations.getAndIncrement() == 0) {
+        firstCapacity.set(capacity);
+      }
+      return ByteBuffer.allocateDirect(capacity);
+    });
+
+    assertEquals(1 + 5000 * 4, frameIndex.nodeCount());
+    assertTrue(allocations.get() > 1);
+    assertTrue(firstCapacity.get() < 1024);
+    List<byte[]> sequences = frameIndex.getAllContents(0x80);
+    assertEquals(5000, sequences.size());
+    assertEquals(4999, ByteBuffer.wrap(sequences.get(4999)).getInt());
+    assertEquals(5000, frameIndex.getAllContents(0x82).size());
+    assertEquals(1, frameIndex.getAllContents(0x61).size());
+  }
+
+  @Test
+  public void testAllocatorFailureIsNotDecodingError() {
+    try {
+      BerFrameIndex.parseFrom(BerBufferUtil.create(BER_WITH_DUP), 0, BER_WITH_DUP.length, capacity -> {
+        if (capacity > 16 + 32) {
+          throw new IllegalStateException("no index memory");
+        }
+        return ByteBuffer.allocate(capacity);
+      });
+      fail("must throw IllegalStateException");
+    } catch (DecoderException ex) {
+      fail("must not report a decoding error");
+    } catch (IllegalStateException ex) {
+      assertEquals("no index memory", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testWrap() {
+    BerFrameIndex frameIndex = BerFrameIndex.parseFrom(ByteBuffer.wrap(BER_WITH_DUP), 0, BER_WITH_DUP.length);
+    ByteBuffer shared = ByteBuffer.allocateDirect(frameIndex.indexBuffer().remaining());
+    shared.put(frameIndex.indexBuffer()).clear();
+
+    BerFrameIndex wrapped = BerFrameIndex.wrap(BerBufferUtil.create(BER_WITH_DUP), shared);
+    assertEquals(frameIndex.nodeCount(), wrapped.nodeCount());
+    assertArrayEquals(frameIndex.getContent(0x84), wrapped.getContent(0x84));
+    assertEquals(2, wrapped.getAllContents(0x6F).size());
+
+    try {
+      BerFrameIndex.wrap(BerBufferUtil.create(new byte[BER_WITH_DUP.length - 1]), shared);
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      // do nothing
+    }
+    shared.putInt(16 + 20, 1000);
+    try {
+      BerFrameIndex.wrap(BerBufferUtil.create(BER_WITH_DUP), shared);
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("malformed BER frame index node (n=0)", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testParseMalformed() {
+    byte[] ber = hexToByteArray("6F1A840E315041592E5359532E4444463031A5088801022D02656E9f36020060");
+    try {
+      BerFrameIndex.parseFrom(ByteBuffer.wrap(ber), 0, ber.length);
+      fail("must throw DecoderException");
+    } catch (DecoderException ex) {
+      assertEquals("content bound is beyond content limit (b=137; l=27)", ex.getCause().getMessage());
+      try {
+        BerFrame.parseFrom(ber);
+        fail("must throw DecoderException");
+      } catch (DecoderException expected) {
+        assertEquals(expected.getMessage(), ex.getMessage());
+        assertArrayEquals(expected.getUndecoded(), ex.getUndecoded());
+        assertArrayEquals(expected.getPartialBerFrame().toByteArray(), ex.getPartialBerFrame().toByteArray());
+        assertArrayEquals(hexToByteArray("315041592E5359532E4444463031"), ex.getPartialBerFrame().getContent(0x84));
+        assertArrayEquals(hexToByteArray("02"), ex.getPartialBerFrame().getContent(0x88));
+      }
+    }
+  }
+}
@@ -17,9 +17,12 @@
 package org.nightcode.tools.ber;
 
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.junit.experimental.theories.DataPoint;
@@ -33,6 +36,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -80,6 +84,179 @@ public class BerFrameTest {
     assertEquals(offset, berFrame.offset());
   }
 
+  @Test
+  public void testParseFromReadOnlyDirectView() {
+    final int offset = 40000;
+    final ByteBuffer arena = ByteBuffer.allocateDirect(1 << 16);
+    arena.position(offset);
+    arena.put(BER);
+    arena.limit(offset + BER.length);
+    arena.position(offset);
+    final ByteBuffer view = arena.slice().asReadOnlyBuffer();
+    BerFrame berFrame = BerFrame.parseFrom(view, 0, view.capacity());
+
+    assertArrayEquals(hexToByteArray("39"), berFrame.getContent(0xDFDFDFDFDFDFDF09L));
+    assertArrayEquals(BER, berFrame.toByteArray());
+  }
+
+  @Test
+  public void testParseFromFragments() {
+    ByteBuffer[] fragments = new ByteBuffer[BER.length / 7 + 1];
+    for (int i = 0; i < fragments.length; i++) {
+      int from = i * 7;
+      fragments[i] = i % 2 == 0 ? ByteBuffer.allocate(Math.min(7, BER.length - from))
+          : ByteBuffer.allocateDirect(Math.min(7, BER.length - from));
+      fragments[i].put(BER, from, fragments[i].capacity());
+      fragments[i].flip();
+    }
+    BerFrame berFrame = BerFrame.parseFrom(fragments);
+
+    assertArrayEquals(hexToByteArray("37"), berFrame.getContent(0xDFDFDFDFDF07L));
+    assertArrayEquals(BER, berFrame.toByteArray());
+    assertEquals(0, fragments[0].position());
+  }
+
+  @Test
+  public void testParseTrustedFrom() {
+    ByteBuffer buffer = ByteBuffer.allocate(BER_WITH_DUP.length + 8);
+    buffer.position(4);
+    buffer.put(BER_WITH_DUP);
+    BerFrame berFrame = BerFrame.parseTrustedFrom(buffer, 4, BER_WITH_DUP.length);
+
+    assertArrayEquals(hexToByteArray("37"), berFrame.getContent(0xDFDFDFDFDF07L));
+    assertEquals(2, berFrame.getAllContents(0x6F).size());
+    BerFrame tag = berFrame.getTag(0x6F);
+    assertNotNull(tag);
+    assertArrayEquals(hexToByteArray("315041592E5359532E4444463031"), tag.getContent(0x84));
+    assertArrayEquals(BER_WITH_DUP, berFrame.toByteArray());
+
+    BerBuffer berBuffer = BerBufferUtil.create(buffer);
+    Class<?> expected = berBuffer instanceof UnsafeBerBuffer
+        ? UnsafeBerBuffer.Trusted.class : BerBufferUtil.create(buffer.asReadOnlyBuffer()).getClass();
+    assertEquals(expected, berFrame.berBuffer().getClass());
+    assertEquals(buffer.getLong(4), berFrame.berBuffer().getLong(4));
+    assertEquals(buffer.getInt(5), berFrame.berBuffer().getInt(5));
+    assertEquals(buffer.getShort(6), berFrame.berBuffer().getShort(6));
+    try {
+      berFrame.berBuffer().putByte(4, (byte) 0);
+      fail("must throw ReadOnlyBufferException");
+    } catch (ReadOnlyBufferException ex) {
+      assertEquals(0x5A, buffer.get(4));
+    }
+  }
+
+  @Test
+  public void testParseTrustedFromMalformed() {
+    try {
+      BerFrame.parseTrustedFrom(hexToByteArray("5A84FFFFFFFF00"));
+      fail("must throw DecoderException");
+    } catch (DecoderException ex) {
+      assertTrue(ex.getCause() instanceof IndexOutOfBoundsException);
+    }
+  }
+
+  @Test
+  public void testReleaseCallback() {
+    BerBufferPool pool = BerBufferPool.newInstance();
+    ByteBuffer srcBuffer = pool.acquireDirect(BER.length);
+    srcBuffer.put(BER).flip();
+    List<ByteBuffer> released = new ArrayList<>();
+    BerFrame berFrame = BerFrame.parseFrom(srcBuffer, 0, BER.length, buffer -> {
+      released.add(buffer);
+      pool.release(buffer);
+    });
+
+    assertEquals(1, berFrame.refCount());
+    assertSame(berFrame, berFrame.retain());
+    assertEquals(2, berFrame.refCount());
+    assertFalse(berFrame.release());
+    assertArrayEquals(hexToByteArray("37"), berFrame.getContent(0xDFDFDFDFDF07L));
+    assertTrue(released.isEmpty());
+
+    assertTrue(berFrame.release());
+    assertEquals(0, berFrame.refCount());
+    assertEquals(1, released.size());
+    assertSame(srcBuffer, released.get(0));
+  }
+
+  @Test
+  public void testIterateAfterRelease() {
+    BerFrame berFrame = BerFrame.parseFrom(ByteBuffer.wrap(BER), 0, BER.length, buffer -> { });
+    Iterator<byte[]> identifiers = berFrame.getIdentifiers();
+    assertTrue(identifiers.hasNext());
+    identifiers.next();
+
+    assertTrue(berFrame.release());
+    try {
+      identifiers.next();
+      fail("should throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("BerFrame has been released", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testReleaseSharedWithTags() {
+    ByteBuffer srcBuffer = ByteBuffer.wrap(BER_WITH_DUP);
+    AtomicInteger released = new AtomicInteger();
+    BerFrame berFrame = BerFrame.parseFrom(srcBuffer, 0, BER_WITH_DUP.length, buffer -> released.incrementAndGet());
+    BerFrame tag = berFrame.getTag(0x6F);
+    assertNotNull(tag);
+
+    tag.retain();
+    assertEquals(2, berFrame.refCount());
+    assertFalse(berFrame.release());
+    assertArrayEquals(hexToByteArray("315041592E5359532E4444463031"), tag.getContent(0x84));
+    assertTrue(tag.release());
+    assertEquals(1, released.get());
+
+    try {
+      tag.getContent(0x84);
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("BerFrame has been released", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testReleasedFrameAccess() {
+    AtomicInteger released = new AtomicInteger();
+    BerFrame berFrame = BerFrame.parseFrom(ByteBuffer.wrap(BER), 0, BER.length, buffer -> released.incrementAndGet());
+    assertTrue(berFrame.release());
+
+    try {
+      berFrame.toByteArray();
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("BerFrame has been released", ex.getMessage());
+    }
+    try {
+      berFrame.retain();
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("BerFrame has been released", ex.getMessage());
+    }
+    try {
+      berFrame.release();
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("BerFrame has been already released", ex.getMessage());
+    }
+    assertEquals(0, berFrame.refCount());
+    assertEquals(1, released.get());
+  }
+
+  @Test
+  public void testReleaseUnmanaged() {
+    BerFrame berFrame = BerFrame.parseFrom(BER);
+
+    assertSame(berFrame, berFrame.retain());
+    assertFalse(berFrame.release());
+    assertFalse(berFrame.release());
+    assertEquals(1, berFrame.refCount());
+    assertArrayEquals(BER, berFrame.toByteArray());
+  }
+
   @Test
   public void testGetContentEmpty() {
     BerFrame berFrame = BerFrame.parseFrom(BER);
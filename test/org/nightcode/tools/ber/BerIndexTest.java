@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerIndexTest {
+
+  private static final int RECORDS = 1000;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRecordAccess() throws IOException {
+    Path archive = writeArchive();
+    Path index = folder.getRoot().toPath().resolve("archive.idx");
+    BerIndex.build(archive, index);
+
+    try (BerIndex berIndex = BerIndex.open(archive, index)) {
+      assertEquals(RECORDS, berIndex.recordCount());
+      assertEquals(0, berIndex.recordOffset(0));
+      for (int i : new int[] {0, 1, 500, RECORDS - 1}) {
+        BerFrame record = berIndex.getRecord(i);
+        assertArrayEquals(pan(i), record.getContent(0x5A));
+        assertEquals(record.toByteArray().length, berIndex.recordLength(i));
+      }
+    }
+  }
+
+  @Test
+  public void testLookup() throws IOException {
+    Path archive = writeArchive();
+    Path index = folder.getRoot().toPath().resolve("archive.idx");
+    BerIndex.build(archive, index, 0x5A, 0x9F36);
+
+    try (BerIndex berIndex = BerIndex.open(archive, index)) {
+      assertArrayEquals(new int[] {123}, berIndex.lookup(0x5A, pan(123)));
+      assertArrayEquals(new int[0], berIndex.lookup(0x5A, pan(RECORDS)));
+      assertArrayEquals(new int[] {7, 263, 519, 775}, berIndex.lookup(0x9F36, new byte[] {0x00, 0x07}));
+      try {
+        berIndex.lookup(0x84, new byte[] {0x00});
+        fail("should throw IllegalArgumentException");
+      } catch (IllegalArgumentException ex) {
+        // do nothing
+      }
+    }
+  }
+
+  @Test
+  public void testOpenStaleIndex() throws IOException {
+    Path archive = writeArchive();
+    Path index = folder.getRoot().toPath().resolve("archive.idx");
+    BerIndex.build(archive, index);
+    try (OutputStream out = Files.newOutputStream(archive, StandardOpenOption.APPEND)) {
+      out.write(hexToByteArray("5A0130"));
+    }
+
+    try {
+      BerIndex.open(archive, index).close();
+      fail("should throw IOException");
+    } catch (IOException ex) {
+      // do nothing
+    }
+  }
+
+  @Test
+  public void testOpenTruncatedIndex() throws IOException {
+    Path archive = writeArchive();
+    Path index = folder.getRoot().toPath().resolve("archive.idx");
+    BerIndex.build(archive, index, 0x5A);
+    byte[] bytes = Files.readAllBytes(index);
+
+    for (int length : new int[] {24 + RECORDS * 8, 24 + (RECORDS + 1) * 8 + 4, bytes.length - 1}) {
+      Files.write(index, Arrays.copyOf(bytes, length));
+      try {
+        BerIndex.open(archive, index).close();
+        fail("should throw IOException");
+      } catch (IOException ex) {
+        // do nothing
+      }
+    }
+  }
+
+  @Test
+  public void testBuildRejectsLongLength() throws IOException {
+    Path archive = folder.getRoot().toPath().resolve("archive.ber");
+    Path index = folder.getRoot().toPath().resolve("archive.idx");
+    Files.write(archive, hexToByteArray("5A84800000000130"));
+    try {
+      BerIndex.build(archive, index);
+      fail("should throw IOException");
+    } catch (IOException ex) {
+      assertEquals("content length is too large (l=2147483648)", ex.getMessage());
+    }
+  }
+
+  private static byte[] pan(int record) {
+    return BerUtil.hexToByteArray(String.format("54133300%08d", record));
+  }
+
+  private Path writeArchive() throws IOException {
+    Path archive = folder.getRoot().toPath().resolve("archive.ber");
+    try (OutputStream out = Files.newOutputStream(archive)) {
+      for (int i = 0; i < RECORDS; i++) {
+        BerBuilder.newInstance()
+            .add(0x70, BerBuilder.newInstance()
+                .add(0x5A, pan(i))
+                .add(0x9F36, new byte[] {0x00, (byte) i})
+                .add(0x9F10, new byte[i % 300]))
+            .writeTo(out);
+      }
+    }
+    return archive;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerOutputBufferTest {
+
+  @Test
+  public void testBuilderGrowsBuffer() {
+    BerOutputBuffer output = BerOutputBuffer.allocate(4);
+    BerBuilder.newInstance().add(0x5A, hexToByteArray("4761739001010010")).writeTo(output);
+    BerBuilder.newInstance().add(0x5F2D, hexToByteArray("656E")).writeTo(output);
+
+    assertEquals(15, output.length());
+    assertEquals(20, output.capacity());
+    assertArrayEquals(hexToByteArray("5A0847617390010100105F2D02656E"), output.toByteArray());
+
+    ByteBuffer view = output.toByteBuffer();
+    assertEquals(0, view.position());
+    assertEquals(15, view.remaining());
+    assertEquals((byte) 0x5A, view.get(0));
+  }
+
+  @Test
+  public void testWriterGrowsDirectBuffer() {
+    byte[] content = new byte[300];
+    BerOutputBuffer output = BerOutputBuffer.allocateDirect(2);
+
+    BerWriter.newInstance(output)
+        .startConstructed(0x70)
+        .add(0x9F10, content)
+        .startConstructed(0xE1)
+        .endConstructed()
+        .endConstructed();
+
+    BerBuilder expected = BerBuilder.newInstance()
+        .add(0x70, BerBuilder.newInstance().add(0x9F10, content).add(0xE1, BerBuilder.newInstance()));
+    byte[] expectedBytes = new byte[expected.length()];
+    expected.writeTo(expectedBytes);
+    assertEquals(expectedBytes.length, output.length());
+    assertArrayEquals(expectedBytes, output.toByteArray());
+  }
+
+  @Test
+  public void testClear() {
+    BerOutputBuffer output = BerOutputBuffer.allocate(16);
+    BerWriter writer = BerWriter.newInstance(output).add(0x5A, hexToByteArray("4761"));
+    assertEquals(4, output.length());
+
+    output.clear();
+    writer.wrap(output).add(0x9F36, hexToByteArray("0060"));
+
+    assertArrayEquals(hexToByteArray("9F36020060"), output.toByteArray());
+  }
+
+  @Test
+  public void testBufferPoolStorage() {
+    BerBufferPool pool = BerBufferPool.newInstance();
+    BerOutputBuffer output = BerOutputBuffer.allocateDirect(pool, 200);
+    assertEquals(256, output.capacity());
+    ByteBuffer initial = output.byteBuffer();
+
+    BerBuilder.newInstance().add(0x9F10, new byte[300]).writeTo(output);
+    assertEquals(305, output.length());
+    assertEquals(512, output.capacity());
+    ByteBuffer grown = output.byteBuffer();
+    output.release();
+
+    assertSame(initial, pool.acquireDirect(256));
+    assertSame(grown, pool.acquireDirect(512));
+  }
+
+  @Test
+  public void testThreadLocalPool() throws InterruptedException {
+    BerOutputBuffer output = BerOutputBuffer.acquire();
+    BerBuilder.newInstance().add(0x5A, hexToByteArray("4761")).writeTo(output);
+    output.release();
+
+    BerOutputBuffer reused = BerOutputBuffer.acquire();
+    assertSame(output, reused);
+    assertEquals(0, reused.length());
+
+    final BerOutputBuffer[] other = new BerOutputBuffer[1];
+    Thread thread = new Thread(() -> other[0] = BerOutputBuffer.acquire());
+    thread.start();
+    thread.join();
+    assertNotSame(reused, other[0]);
+    reused.release();
+  }
+
+  @Test
+  public void testDoubleRelease() {
+    BerOutputBuffer output = BerOutputBuffer.acquire();
+    output.release();
+    try {
+      output.release();
+      fail("should throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("BerOutputBuffer has been already released", ex.getMessage());
+    }
+    assertSame(output, BerOutputBuffer.acquire());
+    assertNotSame(output, BerOutputBuffer.acquire());
+  }
+}
@@ -160,6 +160,46 @@ public class BerParserTest {
     }
   }
 
+  @Test
+  public void testDecodeDer() {
+    byte[] der = hexToByteArray("30190401FF310A02010102010302020080020100A1050201050400");
+
+    BerFrame berFrame = BerFrame.parseDerFrom(der);
+
+    assertArrayEquals(hexToByteArray("02010102010302020080"), berFrame.getContent(0x31));
+    assertArrayEquals(BerFrame.parseFrom(der).toByteArray(), berFrame.toByteArray());
+  }
+
+  @Theory
+  public void shouldRejectNonMinimalLengthInDer() {
+    exceptionRule.expectMessage("non-minimal length octets (i=4)");
+
+    BerFrame.parseDerFrom(hexToByteArray("5A0247615F2D8102656E"));
+  }
+
+  @Theory
+  public void shouldRejectNonMinimalIdentifierInDer() {
+    exceptionRule.expectMessage("non-minimal identifier octets (i=0)");
+
+    BerFrame.parseDerFrom(hexToByteArray("1F1E0100"));
+  }
+
+  @Theory
+  public void shouldRejectUnorderedSetInDer() {
+    exceptionRule.expectMessage("SET members are not in DER order (i=2)");
+
+    BerFrame.parseDerFrom(hexToByteArray("30083106020103020101"));
+  }
+
+  @Test
+  public void testDecodeDerWithoutSetOrder() {
+    byte[] der = hexToByteArray("30083106020103020101");
+
+    BerFrame berFrame = BerFrame.parseDerFrom(ByteBuffer.wrap(der), 0, der.length, false);
+
+    assertArrayEquals(hexToByteArray("020103020101"), berFrame.getContent(0x31));
+  }
+
   @Theory
   public void shouldThrowExceptionForDecodeIndefiniteForm() {
     exceptionRule.expectMessage("Indefinite form is not supported yet.");
@@ -192,4 +232,18 @@ public class BerParserTest {
 
     BerFrame.parseFrom(BerUtil.hexToByteArray("9F"));
   }
+
+  @Theory
+  public void shouldThrowExceptionForNegativeContentLength() {
+    exceptionRule.expectMessage("content bound is beyond content limit (b=4294967301; l=7)");
+
+    BerFrame.parseFrom(hexToByteArray("5A84FFFFFFFF00"));
+  }
+
+  @Theory
+  public void shouldThrowExceptionForNegativeOffset() {
+    exceptionRule.expectMessage("negative offset or length (o=-1; l=2)");
+
+    BerFrame.parseFrom(ByteBuffer.wrap(hexToByteArray("5A00")), -1, 2);
+  }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerProjectionTest {
+
+  private static final byte[] BER = hexToByteArray(
+      "6F1A840E315041592E5359532E4444463031A5088801025F2D02656E9F36020060");
+
+  @Test
+  public void testExclude() {
+    BerFrame berFrame = BerFrame.parseFrom(BER);
+
+    byte[] result = BerProjection.exclude(0x88).toByteArray(berFrame);
+
+    assertArrayEquals(hexToByteArray(
+        "6F17840E315041592E5359532E4444463031A5055F2D02656E9F36020060"), result);
+  }
+
+  @Test
+  public void testExcludeConstructed() {
+    BerFrame berFrame = BerFrame.parseFrom(BER);
+
+    assertArrayEquals(hexToByteArray("6F10840E315041592E5359532E44444630319F36020060")
+        , BerProjection.exclude(0xA5).toByteArray(berFrame));
+    assertArrayEquals(hexToByteArray("9F36020060")
+        , BerProjection.exclude(0x6F).toByteArray(berFrame));
+  }
+
+  @Test
+  public void testExcludeNothing() {
+    BerFrame berFrame = BerFrame.parseFrom(BER);
+
+    assertArrayEquals(BER, BerProjection.exclude(0x5A).toByteArray(berFrame));
+  }
+
+  @Test
+  public void testExcludeKeepsOriginalLengthOctets() {
+    BerFrame berFrame = BerFrame.parseFrom(hexToByteArray("708106880102890103"));
+
+    assertArrayEquals(hexToByteArray("7003880102"), BerProjection.exclude(0x89).toByteArray(berFrame));
+    assertArrayEquals(hexToByteArray("708106880102890103")
+        , BerProjection.exclude(0x8A).toByteArray(berFrame));
+  }
+
+  @Test
+  public void testInclude() {
+    BerFrame berFrame = BerFrame.parseFrom(BER);
+
+    assertArrayEquals(hexToByteArray("6F07A5055F2D02656E")
+        , BerProjection.include(0x5F2D).toByteArray(berFrame));
+    assertArrayEquals(hexToByteArray("6F0AA5088801025F2D02656E9F36020060")
+        , BerProjection.include(0xA5, 0x9F36).toByteArray(berFrame));
+    assertArrayEquals(new byte[0], BerProjection.include(0x5A).toByteArray(berFrame));
+  }
+
+  @Test
+  public void testWriteTo() {
+    BerFrame berFrame = BerFrame.parseFrom(BER);
+    BerProjection projection = BerProjection.exclude(hexToByteArray("84"), hexToByteArray("9F36"));
+    final int length = projection.length(berFrame);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(length + 3);
+
+    assertEquals(length, projection.writeTo(berFrame, buffer, 3));
+
+    byte[] result = new byte[length];
+    buffer.position(3);
+    buffer.get(result);
+    assertArrayEquals(hexToByteArray("6F0AA5088801025F2D02656E"), result);
+  }
+}
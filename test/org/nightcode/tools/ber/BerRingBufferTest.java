@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.nightcode.tools.ber;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerRingBufferTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    Assume.assumeTrue(BerBufferUtil.hasOrderedAccess());
+    file = folder.newFile("ring").toPath();
+  }
+
+  private static BerBuilder message(final int sequence) {
+    BerBuilder builder = BerBuilder.newInstance();
+    builder.add(0x5A, ByteBuffer.allocate(4).putInt(0, sequence).array());
+    builder.add(0x5F2D, hexToByteArray("656E"));
+    return builder;
+  }
+
+  private static int sequence(final BerFrame berFrame) {
+    return ByteBuffer.wrap(berFrame.getContent(0x5A)).getInt();
+  }
+
+  @Test
+  public void testOfferPoll() throws IOException {
+    BerRingBuffer producer = BerRingBuffer.create(file, 1024);
+    BerRingBuffer consumer = BerRingBuffer.open(file);
+    assertEquals(1024, consumer.capacity());
+
+    assertTrue(producer.offer(message(1)));
+    assertTrue(producer.offer(message(2)));
+    assertEquals(32, consumer.size());
+
+    List<Integer> sequences = new ArrayList<>();
+    assertTrue(consumer.poll(berFrame -> sequences.add(sequence(berFrame))));
+    assertTrue(consumer.poll(berFrame -> {
+      sequences.add(sequence(berFrame));
+      assertArrayEquals(hexToByteArray("656E"), berFrame.getContent(0x5F2D));
+    }));
+    assertFalse(consumer.poll(berFrame -> fail("ring must be empty")));
+    assertEquals(0, producer.size());
+    assertEquals(2, sequences.size());
+    assertEquals(1, (int) sequences.get(0));
+    assertEquals(2, (int) sequences.get(1));
+  }
+
+  @Test
+  public void testWrapAround() throws IOException {
+    BerRingBuffer ring = BerRingBuffer.create(file, 64);
+    AtomicInteger expected = new AtomicInteger();
+    for (int i = 0; i < 20; i++) {
+      assertTrue(ring.offer(message(i)));
+      assertTrue(ring.offer(message(i)));
+      assertTrue(ring.poll(berFrame -> assertEquals(expected.get(), sequence(berFrame))));
+      assertTrue(ring.poll(berFrame -> assertEquals(expected.getAndIncrement(), sequence(berFrame))));
+    }
+    assertEquals(0, ring.size());
+  }
+
+  @Test
+  public void testFull() throws IOException {
+    BerRingBuffer ring = BerRingBuffer.create(file, 64);
+    assertTrue(ring.offer(message(1)));
+    assertTrue(ring.offer(message(2)));
+    assertTrue(ring.offer(message(3)));
+    assertTrue(ring.offer(message(4)));
+    assertFalse(ring.offer(message(5)));
+
+    assertTrue(ring.poll(berFrame -> assertEquals(1, sequence(berFrame))));
+    assertTrue(ring.offer(message(5)));
+    assertEquals(64, ring.size());
+  }
+
+  @Test
+  public void testMessageTooLarge() throws IOException {
+    BerRingBuffer ring = BerRingBuffer.create(file, 64);
+    BerBuilder builder = BerBuilder.newInstance();
+    builder.add(0x5A, new byte[64]);
+    try {
+      ring.offer(builder);
+      fail("must throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      assertEquals("message does not fit into the ring: 66", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testOpenNotRingFile() throws IOException {
+    Files.write(file, new byte[256]);
+    try {
+      BerRingBuffer.open(file);
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("not a ring file: " + file, ex.getMessage());
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testHandoffBetweenThreads() throws Exception {
+    final int count = 100000;
+    BerRingBuffer.create(file, 4096);
+    BerRingBuffer producer = BerRingBuffer.open(file);
+    BerRingBuffer consumer = BerRingBuffer.open(file);
+
+    Thread thread = new Thread(() -> {
+      for (int i = 0; i < count; i++) {
+        BerBuilder builder = message(i);
+        while (!producer.offer(builder)) {
+          Thread.yield();
+        }
+      }
+    });
+    thread.start();
+
+    AtomicInteger expected = new AtomicInteger();
+    while (expected.get() < count) {
+      if (!consumer.poll(berFrame -> assertEquals(expected.getAndIncrement(), sequence(berFrame)))) {
+        Thread.yield();
+      }
+    }
+    thread.join();
+    assertEquals(0, consumer.size());
+  }
+
+  @Test
+  public void testClose() throws IOException {
+    BerRingBuffer ring = BerRingBuffer.create(file, 64);
+    assertTrue(ring.offer(message(1)));
+    ring.close();
+    ring.close();
+    try {
+      ring.poll(berFrame -> fail("ring has been closed"));
+      fail("must throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("BerRingBuffer has been closed", ex.getMessage());
+    }
+
+    try (BerRingBuffer consumer = BerRingBuffer.open(file)) {
+      assertTrue(consumer.poll(berFrame -> assertEquals(1, sequence(berFrame))));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testHandoffBetweenProcesses() throws Exception {
+    final int count = 10000;
+    try (BerRingBuffer consumer = BerRingBuffer.create(file, 4096)) {
+      List<String> command = new ArrayList<>();
+      command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+      for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+        if (argument.startsWith("--add-exports") || argument.startsWith("-Dorg.nightcode.tools.ber.")) {
+          command.add(argument);
+        }
+      }
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(Producer.class.getName());
+      command.add(file.toString());
+      command.add(Integer.toString(count));
+      Process process = new ProcessBuilder(command)
+          .redirectErrorStream(true)
+          .redirectOutput(folder.newFile("producer.log"))
+          .start();
+
+      AtomicInteger expected = new AtomicInteger();
+      while (expected.get() < count) {
+        if (!consumer.poll(berFrame -> assertEquals(expected.getAndIncrement(), sequence(berFrame)))) {
+          if (!process.isAlive() && consumer.size() == 0) {
+            fail("producer exited with " + process.exitValue() + " after " + expected.get() + " messages: "
+                + new String(Files.readAllBytes(new File(folder.getRoot(), "producer.log").toPath())));
+          }
+          Thread.yield();
+        }
+      }
+      assertEquals(0, process.waitFor());
+      assertEquals(0, consumer.size());
+    }
+  }
+
+  /**
+   * Offers the requested number of messages to the ring file from a separate JVM.
+   */
+  public static final class Producer {
+    public static void main(String[] args) throws IOException {
+      final int count = Integer.parseInt(args[1]);
+      try (BerRingBuffer producer = BerRingBuffer.open(Paths.get(args[0]))) {
+        for (int i = 0; i < count; i++) {
+          BerBuilder builder = message(i);
+          while (!producer.offer(builder)) {
+            Thread.yield();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerTemplateTest {
+
+  private static BerBuilder sample() {
+    return BerBuilder.newInstance()
+        .add(0x70, BerBuilder.newInstance()
+            .add(0x9F26, hexToByteArray("0102030405060708"))
+            .add(0x9F27, hexToByteArray("80"))
+            .add(0xE1, BerBuilder.newInstance().add(0x9F36, hexToByteArray("0060"))))
+        .add(0x5F2D, hexToByteArray("656E"));
+  }
+
+  @Test
+  public void testSlots() {
+    BerTemplate template = BerTemplate.compile(sample());
+
+    assertEquals(4, template.slotCount());
+    assertEquals(0, template.slot(0x9F26));
+    assertEquals(2, template.slot(0x9F36));
+    assertEquals(3, template.slot(hexToByteArray("5F2D")));
+    assertEquals(-1, template.slot(0x70));
+    assertEquals(-1, template.slot(0x5A));
+  }
+
+  @Test
+  public void testFixedWidthValues() {
+    BerTemplate template = BerTemplate.compile(sample());
+    byte[] expected = new byte[sample().length()];
+    sample().writeTo(expected);
+    assertArrayEquals(expected, template.toByteArray());
+
+    template.set(0, hexToByteArray("1112131415161718")).set(2, hexToByteArray("0061"));
+
+    assertEquals(expected.length, template.length());
+    assertArrayEquals(hexToByteArray("70169F260811121314151617189F270180E1059F360200615F2D02656E")
+        , template.toByteArray());
+  }
+
+  @Test
+  public void testResizedValues() {
+    BerTemplate template = BerTemplate.compile(sample());
+    byte[] content = new byte[200];
+
+    template.set(1, hexToByteArray("4000")).set(2, content);
+    BerBuilder expected = BerBuilder.newInstance()
+        .add(0x70, BerBuilder.newInstance()
+            .add(0x9F26, hexToByteArray("0102030405060708"))
+            .add(0x9F27, hexToByteArray("4000"))
+            .add(0xE1, BerBuilder.newInstance().add(0x9F36, content)))
+        .add(0x5F2D, hexToByteArray("656E"));
+    byte[] expectedBytes = new byte[expected.length()];
+    expected.writeTo(expectedBytes);
+
+    assertEquals(expected.length(), template.length());
+    ByteBuffer buffer = ByteBuffer.allocateDirect(template.length() + 1);
+    assertEquals(template.length(), template.writeTo(buffer, 1));
+    byte[] result = new byte[template.length()];
+    buffer.position(1);
+    buffer.get(result);
+    assertArrayEquals(expectedBytes, result);
+
+    template.set(2, hexToByteArray("0060")).set(1, hexToByteArray("80"));
+    byte[] sampleBytes = new byte[sample().length()];
+    sample().writeTo(sampleBytes);
+    assertArrayEquals(sampleBytes, template.toByteArray());
+  }
+
+  @Test
+  public void testDuplicate() {
+    BerTemplate template = BerTemplate.compile(BerFrame.parseFrom(hexToByteArray("5A0247615F2D02656E")));
+    BerTemplate duplicate = template.duplicate().set(0, hexToByteArray("4000"));
+
+    assertArrayEquals(hexToByteArray("5A0247615F2D02656E"), template.toByteArray());
+    assertArrayEquals(hexToByteArray("5A0240005F2D02656E"), duplicate.toByteArray());
+    assertArrayEquals(hexToByteArray("5A0247615F2D02656E"), duplicate.reset().toByteArray());
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.nightcode.tools.ber.BerUtil.hexToByteArray;
+
+public class BerWriterTest {
+
+  @Test
+  public void testNested() {
+    byte[] dst = new byte[64];
+    BerWriter writer = BerWriter.newInstance(dst)
+        .startConstructed(0x6F)
+        .add(0x84, hexToByteArray("315041592E5359532E4444463031"))
+        .startConstructed(0xA5)
+        .add(0x88, hexToByteArray("02"))
+        .add(0x5F2D, hexToByteArray("656E"))
+        .endConstructed()
+        .add(hexToByteArray("9F36"), hexToByteArray("0060"))
+        .endConstructed();
+
+    assertEquals(0, writer.depth());
+    byte[] result = new byte[writer.length()];
+    System.arraycopy(dst, 0, result, 0, result.length);
+    assertArrayEquals(hexToByteArray(
+        "6F1F840E315041592E5359532E4444463031A5088801025F2D02656E9F36020060"), result);
+  }
+
+  @Test
+  public void testLongFormLength() {
+    byte[] content = new byte[300];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    BerBuilder builder = BerBuilder.newInstance().add(0x70, BerBuilder.newInstance()
+        .add(0x9F10, content)
+        .add(0xBF0C, BerBuilder.newInstance().add(0x9F4D, content).add(0x5A, hexToByteArray("01"))));
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(builder.length() + 2);
+    BerWriter writer = BerWriter.newInstance(buffer, 2)
+        .startConstructed(0x70)
+        .add(0x9F10, content)
+        .startConstructed(0xBF0C)
+        .add(0x9F4D, content)
+        .add(0x5A, hexToByteArray("01"))
+        .endConstructed()
+        .endConstructed();
+
+    assertEquals(builder.length(), writer.length());
+    byte[] result = new byte[writer.length()];
+    buffer.position(2);
+    buffer.get(result);
+    byte[] expected = new byte[builder.length()];
+    builder.writeTo(expected);
+    assertArrayEquals(expected, result);
+  }
+
+  @Test
+  public void testReset() {
+    byte[] dst = new byte[16];
+    BerWriter writer = BerWriter.newInstance(dst);
+    writer.startConstructed(0xE1).add(0x9F02, hexToByteArray("000000001000"));
+    writer.reset().add(0x5A, hexToByteArray("4761")).startConstructed(0xE1).endConstructed();
+
+    assertEquals(6, writer.length());
+    assertArrayEquals(hexToByteArray("5A024761E100"), Arrays.copyOf(dst, 6));
+  }
+
+  @Test
+  public void testEndWithoutStart() {
+    BerWriter writer = BerWriter.newInstance(new byte[4]);
+    try {
+      writer.endConstructed();
+      fail("should throw IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("no constructed BER tag to end", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testOverflow() {
+    BerWriter writer = BerWriter.newInstance(new byte[4]);
+    try {
+      writer.add(0x5A, hexToByteArray("01020304"));
+      fail("should throw IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException ex) {
+      // do nothing
+    }
+  }
+
+  @Test
+  public void testExactSizeDestination() {
+    byte[] dst = new byte[3];
+    BerWriter.newInstance(dst).add(0x5A, hexToByteArray("30"), 0, 1);
+    assertArrayEquals(hexToByteArray("5A0130"), dst);
+
+    dst = new byte[2];
+    BerWriter.newInstance(dst).add(0x30, new byte[0], 0, 0);
+    assertArrayEquals(hexToByteArray("3000"), dst);
+
+    dst = new byte[5];
+    BerWriter.newInstance(dst).startConstructed(0xBF0C).add(0x5A, new byte[0]).endConstructed();
+    assertArrayEquals(hexToByteArray("BF0C025A00"), dst);
+  }
+
+  @Test
+  public void testDer() {
+    byte[] content = new byte[200];
+    BerOutputBuffer output = BerOutputBuffer.allocate(16);
+    BerWriter.newInstance(output).der()
+        .startConstructed(0x31)
+        .add(0x04, content)
+        .startConstructed(0x31)
+        .add(0x02, hexToByteArray("05"))
+        .add(0x02, hexToByteArray("01"))
+        .endConstructed()
+        .add(0x31, hexToByteArray("0201030201FF"))
+        .endConstructed();
+
+    BerBuilder expected = BerBuilder.newInstance()
+        .add(0x31, BerBuilder.newInstance()
+            .add(0x04, content)
+            .add(0x31, hexToByteArray("020101020105"))
+            .add(0x31, hexToByteArray("0201030201FF")));
+    byte[] expectedBytes = new byte[expected.length()];
+    expected.writeTo(expectedBytes);
+    assertArrayEquals(expectedBytes, output.toByteArray());
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019 The NightCode Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.nightcode.tools.ber;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompositeBerBufferTest {
+
+  private static final byte[] VALUE = "BER Tool composite buffer".getBytes();
+
+  private static ByteBuffer[] fragments() {
+    ByteBuffer heapSlice = ByteBuffer.allocate(16);
+    heapSlice.position(3);
+    heapSlice.limit(10);
+    ByteBuffer direct = ByteBuffer.allocateDirect(5);
+    return new ByteBuffer[] {ByteBuffer.allocate(4), ByteBuffer.allocate(0), heapSlice.slice(), direct
+        , ByteBuffer.allocate(20)};
+  }
+
+  @Test
+  public void testCapacity() {
+    Assert.assertEquals(4 + 7 + 5 + 20, new CompositeBerBuffer(fragments()).capacity());
+  }
+
+  @Test
+  public void testPutAndGetAcrossFragments() {
+    ByteBuffer[] fragments = fragments();
+    BerBuffer berBuffer = new CompositeBerBuffer(fragments);
+    for (int index = 0; index + VALUE.length <= berBuffer.capacity(); index++) {
+      Assert.assertEquals(VALUE.length, berBuffer.putBytes(index, VALUE));
+      byte[] dst = new byte[VALUE.length];
+      Assert.assertEquals(VALUE.length, berBuffer.getBytes(index, dst));
+      Assert.assertArrayEquals(VALUE, dst);
+
+      ByteBuffer dstBuffer = ByteBuffer.allocateDirect(VALUE.length);
+      berBuffer.getBytes(index, dstBuffer, VALUE.length);
+      Assert.assertEquals(VALUE.length, dstBuffer.position());
+      for (int i = 0; i < VALUE.length; i++) {
+        Assert.assertEquals(VALUE[i], berBuffer.getByte(index + i));
+        Assert.assertEquals(VALUE[i], dstBuffer.get(i));
+      }
+    }
+    Assert.assertEquals(0, fragments[0].position());
+    Assert.assertEquals(4, fragments[0].limit());
+  }
+
+  @Test
+  public void testPutFromBufferAcrossFragments() {
+    BerBuffer berBuffer = new CompositeBerBuffer(fragments());
+    ByteBuffer src = ByteBuffer.wrap(VALUE);
+    Assert.assertEquals(VALUE.length, berBuffer.putBytes(2, src, VALUE.length));
+    Assert.assertFalse(src.hasRemaining());
+
+    byte[] dst = new byte[VALUE.length];
+    berBuffer.getBytes(2, dst);
+    Assert.assertArrayEquals(VALUE, dst);
+  }
+
+  @Test
+  public void testPutIntAcrossFragments() {
+    BerBuffer berBuffer = new CompositeBerBuffer(fragments());
+    berBuffer.putInt(2, 0x01020304);
+    berBuffer.putInt(12, 0x05060708);
+    byte[] dst = new byte[4];
+    berBuffer.getBytes(2, dst);
+    Assert.assertArrayEquals(new byte[] {1, 2, 3, 4}, dst);
+    berBuffer.getBytes(12, dst);
+    Assert.assertArrayEquals(new byte[] {5, 6, 7, 8}, dst);
+  }
+
+  @Test
+  public void testWideAccessAcrossFragments() {
+    BerBuffer berBuffer = new CompositeBerBuffer(fragments());
+    for (int index = 0; index + 8 <= berBuffer.capacity(); index++) {
+      berBuffer.putLong(index, 0x0102030405060708L + index);
+      Assert.assertEquals(0x0102030405060708L + index, berBuffer.getLong(index));
+      Assert.assertEquals(0x01020304, berBuffer.getInt(index));
+      Assert.assertEquals((short) 0x0102, berBuffer.getShort(index));
+      berBuffer.putShort(index, (short) 0xFEFD);
+      Assert.assertEquals((byte) 0xFE, berBuffer.getByte(index));
+      Assert.assertEquals((byte) 0xFD, berBuffer.getByte(index + 1));
+    }
+  }
+
+  @Test
+  public void testCountIsLimitedByCapacity() {
+    BerBuffer berBuffer = new CompositeBerBuffer(fragments());
+    Assert.assertEquals(3, berBuffer.putBytes(berBuffer.capacity() - 3, VALUE));
+    Assert.assertEquals(3, berBuffer.getBytes(berBuffer.capacity() - 3, new byte[VALUE.length]));
+  }
+
+  @Test
+  public void testCopyAcrossFragments() {
+    BerBuffer berBuffer = new CompositeBerBuffer(fragments());
+    berBuffer.putBytes(2, VALUE);
+
+    byte[] dst = new byte[VALUE.length + 1];
+    BerBufferUtil.copy(berBuffer, 2, BerBufferUtil.create(dst), 1, VALUE.length);
+    Assert.assertArrayEquals(VALUE, Arrays.copyOfRange(dst, 1, dst.length));
+
+    BerBuffer composite = new CompositeBerBuffer(fragments());
+    BerBufferUtil.copy(berBuffer, 2, composite, 3, VALUE.length);
+    byte[] copy = new byte[VALUE.length];
+    composite.getBytes(3, copy);
+    Assert.assertArrayEquals(VALUE, copy);
+  }
+
+  @Test
+  public void testBuilderCopiesFragmentedFrame() throws IOException {
+    byte[] encoded = encode(BerBuilder.newInstance()
+        .add(0x5A, VALUE)
+        .add(0x9F02, new byte[] {0x00, 0x00, 0x00, 0x01, 0x00, 0x00})
+        .add(0x57, VALUE));
+    ByteBuffer[] fragments = new ByteBuffer[] {ByteBuffer.wrap(encoded, 0, 5).slice()
+        , ByteBuffer.wrap(encoded, 5, 30).slice(), ByteBuffer.wrap(encoded, 35, encoded.length - 35).slice()};
+    BerFrame berFrame = BerFrame.parseFrom(fragments);
+
+    BerBuilder builder = BerBuilder.newInstance().addRef(berFrame).addRaw(berFrame).add(0x70, berFrame);
+    byte[] expected = encode(BerBuilder.newInstance()
+        .addRaw(encoded)
+        .addRaw(encoded)
+        .add(0x70, BerFrame.parseFrom(encoded)));
+    Assert.assertArrayEquals(expected, encode(builder));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.writeTo(out);
+    Assert.assertArrayEquals(expected, out.toByteArray());
+  }
+
+  private static byte[] encode(BerBuilder builder) {
+    byte[] encoded = new byte[builder.length()];
+    builder.writeTo(encoded);
+    return encoded;
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void shouldThrowExceptionForIndexAtCapacity() {
+    BerBuffer berBuffer = new CompositeBerBuffer(fragments());
+    berBuffer.getByte(berBuffer.capacity());
+  }
+}